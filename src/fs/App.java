@@ -124,9 +124,16 @@ public class App {
         result.put(ListPropertiesCommand.COMMAND, new ListPropertiesCommand());
         result.put(CopyCommand.COMMAND, new CopyCommand());
         result.put(CreateDiskCommand.COMMAND, new CreateDiskCommand());
+        result.put(CloneDiskCommand.COMMAND, new CloneDiskCommand());
         result.put(DeleteFileCommand.COMMAND, new DeleteFileCommand());
         result.put(MoveFileCommand.COMMAND, new MoveFileCommand());
         result.put(ShowSectorsCommand.COMMAND, new ShowSectorsCommand());
+        result.put(PreallocateCommand.COMMAND, new PreallocateCommand());
+        result.put(SyncCommand.COMMAND, new SyncCommand());
+        result.put(SnapshotCommand.COMMAND, new SnapshotCommand());
+        result.put(DeduplicationCommand.COMMAND, new DeduplicationCommand());
+        result.put(DiskUsageCommand.COMMAND, new DiskUsageCommand());
+        result.put(DiskFreeCommand.COMMAND, new DiskFreeCommand());
         result.put(HelpCommand.COMMAND, new HelpCommand());
         result.put(ExitCommand.COMMAND, new ExitCommand());
 	return result;
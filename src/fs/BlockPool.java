@@ -0,0 +1,371 @@
+package fs;
+
+import fs.util.IntList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A region of the disk made of sectors of the same size.
+ * Each pool tracks its own free space. Sectors are identified by a global
+ * index, the sectors of a pool are the indexes between its first sector and
+ * its first sector plus its sector amount.
+ *
+ * @author José Andrés García Sáenz <jags9415@gmail.com>
+ */
+public class BlockPool {
+
+    /**
+     * The global index of the first sector of the pool.
+     */
+    private final int first;
+
+    /**
+     * The amount of sectors in the pool.
+     */
+    private final int sectorAmount;
+
+    /**
+     * The size of a single sector of the pool.
+     */
+    private final int sectorSize;
+
+    /**
+     * Position of the first character of the pool in the disk.
+     */
+    private final long offset;
+
+    /**
+     * Set of sectors in use, indexed relative to the first sector.
+     */
+    private final BitSet usedSectors;
+
+    /**
+     * Amount of available sectors.
+     */
+    private int availableSectors;
+
+    /**
+     * Amount of files that share each sector, indexed relative to the first sector.
+     */
+    private final int[] references;
+
+    /**
+     * Sum of the references of all the sectors, the sectors used by the files
+     * counting a shared sector once for each file.
+     */
+    private long totalReferences;
+
+    /**
+     * Tail sectors of the pool with free space at their end, by the amount of free characters.
+     */
+    private final TreeMap<Integer, IntList> tailSectors;
+
+    /**
+     * Create a new pool.
+     *
+     * @param first The global index of the first sector.
+     * @param sectorAmount The amount of sectors.
+     * @param sectorSize The size of a single sector.
+     * @param offset The position of the first character of the pool in the disk.
+     */
+    public BlockPool(int first, int sectorAmount, int sectorSize, long offset) {
+        this.first = first;
+        this.sectorAmount = sectorAmount;
+        this.sectorSize = sectorSize;
+        this.offset = offset;
+        this.usedSectors = new BitSet(sectorAmount);
+        this.availableSectors = sectorAmount;
+        this.references = new int[sectorAmount];
+        this.tailSectors = new TreeMap<>();
+    }
+
+    /**
+     * Create a copy of a pool with the same sectors in use.
+     *
+     * @param pool The pool to copy.
+     */
+    public BlockPool(BlockPool pool) {
+        this.first = pool.first;
+        this.sectorAmount = pool.sectorAmount;
+        this.sectorSize = pool.sectorSize;
+        this.offset = pool.offset;
+        this.usedSectors = (BitSet) pool.usedSectors.clone();
+        this.availableSectors = pool.availableSectors;
+        this.totalReferences = pool.totalReferences;
+        this.references = pool.references.clone();
+        this.tailSectors = new TreeMap<>();
+        for (Map.Entry<Integer, IntList> entry : pool.tailSectors.entrySet()) {
+            tailSectors.put(entry.getKey(), new IntList(entry.getValue()));
+        }
+    }
+
+    /**
+     * Get the global index of the first sector.
+     *
+     * @return The index.
+     */
+    public int getFirst() {
+        return first;
+    }
+
+    /**
+     * Get the amount of sectors in the pool.
+     *
+     * @return The amount of sectors.
+     */
+    public int getSectorAmount() {
+        return sectorAmount;
+    }
+
+    /**
+     * Get the size of a single sector.
+     *
+     * @return The size.
+     */
+    public int getSectorSize() {
+        return sectorSize;
+    }
+
+    /**
+     * Get the amount of available sectors.
+     *
+     * @return The amount of sectors.
+     */
+    public int getAvailableSectors() {
+        return availableSectors;
+    }
+
+    /**
+     * Get the sum of the references of all the sectors in use.
+     *
+     * @return The amount of references.
+     */
+    public long getTotalReferences() {
+        return totalReferences;
+    }
+
+    /**
+     * Change the free space of a tail sector.
+     * A sector without free space is not kept, -1 means it is not a tail sector.
+     *
+     * @param sector The tail sector.
+     * @param previous The amount of free characters it had, -1 for a new tail sector.
+     * @param free The amount of free characters it has, -1 when it is no longer a tail sector.
+     */
+    public void setTailFree(int sector, int previous, int free) {
+        if (previous == free) {
+            return;
+        }
+        if (previous > 0) {
+            IntList sectors = tailSectors.get(previous);
+            sectors.removeValue(sector);
+            if (sectors.isEmpty()) {
+                tailSectors.remove(previous);
+            }
+        }
+        if (free > 0) {
+            tailSectors.computeIfAbsent(free, k -> new IntList()).add(sector);
+        }
+    }
+
+    /**
+     * Find the tail sector with the least free space that fits a length.
+     *
+     * @param length The required amount of free characters.
+     * @return The sector, -1 if there is none.
+     */
+    public int findTailSector(int length) {
+        Map.Entry<Integer, IntList> entry = tailSectors.ceilingEntry(Math.max(length, 1));
+        if (entry == null) {
+            return -1;
+        }
+        IntList sectors = entry.getValue();
+        return sectors.get(sectors.size() - 1);
+    }
+
+    /**
+     * Check if a sector belongs to the pool.
+     *
+     * @param sector The global index of the sector.
+     * @return true if the sector is in the pool.
+     */
+    public boolean contains(int sector) {
+        return sector >= first && sector < first + sectorAmount;
+    }
+
+    /**
+     * Get the position of the first character of a sector in the disk.
+     *
+     * @param sector The global index of the sector.
+     * @return The position.
+     */
+    public long offsetOf(int sector) {
+        return offset + (long) (sector - first) * sectorSize;
+    }
+
+    /**
+     * Check if a sector is in use.
+     *
+     * @param sector The global index of the sector.
+     * @return true if the sector is in use.
+     */
+    public boolean isUsed(int sector) {
+        return usedSectors.get(sector - first);
+    }
+
+    /**
+     * Get the amount of files that share a sector.
+     *
+     * @param sector The global index of the sector.
+     * @return The amount of references, zero if the sector is available.
+     */
+    public int getReferences(int sector) {
+        return references[sector - first];
+    }
+
+    /**
+     * Check if a sector is shared by several files.
+     *
+     * @param sector The global index of the sector.
+     * @return true if the sector has more than one reference.
+     */
+    public boolean isShared(int sector) {
+        return references[sector - first] > 1;
+    }
+
+    /**
+     * Add a reference to a sector in use.
+     *
+     * @param sector The global index of the sector.
+     */
+    public void retain(int sector) {
+        references[sector - first]++;
+        totalReferences++;
+    }
+
+    /**
+     * Remove a reference to a shared sector. The last reference is removed by freeing the sector.
+     *
+     * @param sector The global index of the sector.
+     */
+    public void unshare(int sector) {
+        if (references[sector - first] > 1) {
+            references[sector - first]--;
+            totalReferences--;
+        }
+    }
+
+    /**
+     * Allocate n sectors trying to keep them contiguous.
+     * The sectors right after the last sector are preferred, then the
+     * first contiguous run of available sectors and finally the first available sectors.
+     * The caller must check that there are enough available sectors.
+     *
+     * @param owned The list where the new sectors are added.
+     * @param last The global index of the last sector owned by the file, -1 if it has none.
+     * @param count The number of sectors to allocate.
+     * @throws java.lang.IllegalStateException If there aren't enough available sectors, nothing is allocated.
+     */
+    public void allocate(IntList owned, int last, int count) {
+        int start = -1;
+
+        if (count <= 0) {
+            return;
+        }
+        if (count > availableSectors) {
+            throw new IllegalStateException("Insufficient sectors in the pool: " + count + " required, " + availableSectors + " available.");
+        }
+        if (contains(last) && isContiguous(last + 1 - first, count)) {
+            start = last + 1 - first;
+        }
+        if (start == -1) {
+            start = findContiguous(count);
+        }
+
+        if (start != -1) {
+            for (int i = start; i < start + count; i++) {
+                owned.add(first + i);
+            }
+            usedSectors.set(start, start + count);
+            Arrays.fill(references, start, start + count, 1);
+            totalReferences += count;
+            availableSectors -= count;
+        }
+        else {
+            for (int i = 0; i < count; i++) {
+                owned.add(allocate());
+            }
+        }
+    }
+
+    /**
+     * Allocate the first available sector.
+     * The caller must check that there are available sectors.
+     *
+     * @return The global index of the sector.
+     * @throws java.lang.IllegalStateException If the pool is full, nothing is allocated.
+     */
+    public int allocate() {
+        int sector = usedSectors.nextClearBit(0);
+        if (sector >= sectorAmount) {
+            throw new IllegalStateException("Insufficient sectors in the pool: no sector available.");
+        }
+        usedSectors.set(sector);
+        references[sector] = 1;
+        totalReferences++;
+        availableSectors--;
+        return first + sector;
+    }
+
+    /**
+     * Mark a sector as available. The sector must be wiped by the caller.
+     *
+     * @param sector The global index of the sector.
+     */
+    public void free(int sector) {
+        if (usedSectors.get(sector - first)) {
+            usedSectors.clear(sector - first);
+            totalReferences -= references[sector - first];
+            references[sector - first] = 0;
+            availableSectors++;
+        }
+    }
+
+    /**
+     * Find the first run of n contiguous available sectors.
+     *
+     * @param count The length of the run.
+     * @return The first sector of the run relative to the pool, -1 if there is none.
+     */
+    private int findContiguous(int count) {
+        int start = usedSectors.nextClearBit(0);
+        int end;
+
+        while (start + count <= sectorAmount) {
+            end = usedSectors.nextSetBit(start);
+            if (end == -1 || end - start >= count) {
+                return start;
+            }
+            start = usedSectors.nextClearBit(end);
+        }
+        return -1;
+    }
+
+    /**
+     * Check if a run of sectors is available.
+     *
+     * @param start The first sector of the run relative to the pool.
+     * @param count The length of the run.
+     * @return true if all the sectors of the run are available.
+     */
+    private boolean isContiguous(int start, int count) {
+        if (start + count > sectorAmount) {
+            return false;
+        }
+        int used = usedSectors.nextSetBit(start);
+        return used == -1 || used >= start + count;
+    }
+
+}
@@ -10,10 +10,14 @@ public class Directory extends Node {
         super(name);
     }
     
+    public Directory(long inode, String name) {
+        super(inode, name);
+    }
+    
     public Directory(Directory directory) {
-        this(directory.name);
-        this.creationDate = directory.creationDate;
-        this.lastModificationDate = directory.lastModificationDate;
+        this(directory.inode, directory.name);
+        this.creationTime = directory.creationTime;
+        this.lastModificationTime = directory.lastModificationTime;
     }
     
 }
@@ -1,36 +1,55 @@
 package fs;
 
+import fs.util.IntList;
+import fs.util.ParsedPath;
 import fs.util.Tree;
 import fs.util.StringUtils;
 import fs.util.FileUtils;
-import java.io.BufferedWriter;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.io.Writer;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.channels.FileChannel;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.NotDirectoryException;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.PatternSyntaxException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * Virtual Disk.
@@ -42,19 +61,56 @@ public class Disk {
     public final static char ZERO = 0x7F; // DEL character
 
     /**
-     * The file where the disk is stored.
+     * Maximum amount of characters kept in the write-back buffers before they are flushed.
      */
-    private final java.io.File file;
-
+    public final static int BUFFER_LIMIT = 64 * 1024;
+    
+    /**
+     * Bytes used by each character in the disk file. The disk is stored in
+     * UTF-16BE so the position of every sector is known and the sectors are
+     * read and written in place.
+     */
+    private final static int CHAR_BYTES = 2;
+    
+    /**
+     * Name of the directory where the snapshots are browsed.
+     */
+    public final static String SNAPSHOTS = ".snapshots";
+    
+    /**
+     * Amount of characters of a file compressed together, the unit of the ranged reads.
+     */
+    public final static int COMPRESSION_CHUNK = 4096;
+    
+    /**
+     * Order of the listings by name.
+     */
+    public final static String SORT_NAME = "name";
+    
     /**
-     * List of sectors.
+     * Order of the listings by last modification date.
      */
-    private final List<Sector> totalSectors;
+    public final static String SORT_MTIME = "mtime";
     
     /**
-     * List of available oldSectors.
+     * Order of the listings by size.
      */
-    private final List<Sector> availableSectors;
+    public final static String SORT_SIZE = "size";
+    
+    /**
+     * Maximum amount of entries of each path cache.
+     */
+    public final static int PATH_CACHE_SIZE = 1024;
+
+    /**
+     * The file where the disk is stored.
+     */
+    private final java.io.File file;
+
+    /**
+     * The pools of sectors of the disk, each one with its own sector size.
+     */
+    private final BlockPool[] pools;
 
     /**
      * The root srcTree of the file system tree.
@@ -67,14 +123,141 @@ public class Disk {
     private Tree<Node> current;
 
     /**
-     * The size of a single sector. Amount of characters that a sector can hold.
+     * The amount of sectors in the disk, all the pools included.
+     */
+    private final int sectorAmount;
+
+    /**
+     * Write-back buffers of the files whose sectors are not allocated yet.
      */
-    private final int sectorSize;
+    private final Map<Node, String> buffers;
 
     /**
-     * The amount of oldSectors in the disk.
+     * Buffered files in the order they were buffered.
      */
-    private final int sectorAmount;
+    private final List<Node> bufferedNodes;
+
+    /**
+     * Total of characters kept in the write-back buffers.
+     */
+    private long bufferedChars;
+
+    /**
+     * Pool and amount of sectors promised to each buffered file.
+     */
+    private final Map<Node, int[]> promises;
+
+    /**
+     * Amount of sectors of each pool promised to the buffered files.
+     */
+    private final int[] promisedSectors;
+
+    /**
+     * Flag indicating if the allocation of sectors is delayed until the buffers are flushed.
+     */
+    private boolean delayedAllocation;
+
+    /**
+     * Maximum length of the content stored inline in a file node. Zero disables inline storage.
+     */
+    private int inlineThreshold;
+
+    /**
+     * Flag indicating if the last partial sector of the files is packed into shared tail sectors.
+     */
+    private boolean tailPacking;
+
+    /**
+     * Characters used in each tail sector, indexed by sector.
+     */
+    private final int[] tailUsed;
+
+    /**
+     * Amount of tails stored in each tail sector, indexed by sector.
+     */
+    private final int[] tailCount;
+
+    /**
+     * A sector of zeros of the biggest sector size, the content of the holes.
+     */
+    private final char[] zeros;
+
+    /**
+     * Flag indicating if the content of the files is compressed.
+     */
+    private boolean compression;
+
+    /**
+     * Flag indicating if the written sectors are deduplicated.
+     */
+    private boolean deduplication;
+
+    /**
+     * The sectors with deduplicated content, indexed by the SHA-256 digest of the content.
+     */
+    private final Map<ByteBuffer, IntList> chunkIndex;
+
+    /**
+     * Digest of the content of each indexed sector, indexed by sector.
+     */
+    private final ByteBuffer[] chunkDigests;
+
+    /**
+     * Set of sectors in the chunk index.
+     */
+    private final BitSet indexedSectors;
+    
+    /**
+     * The directory of the snapshots. It is a child of the root only for the
+     * path resolution, so it is not listed.
+     */
+    private final Tree<Node> snapshots;
+    
+    /**
+     * The read-only disk whose sectors are read when they are not in the image, null if there is none.
+     */
+    private final Disk base;
+
+    /**
+     * Set of sectors written in the image of an overlay, the rest are read from the base.
+     */
+    private final BitSet overlaid;
+
+    /**
+     * Flag indicating if the disk is the base of an overlay and can't be changed.
+     */
+    private boolean frozen;
+
+    /**
+     * Channel of the image kept open between reads, used to compare the
+     * deduplicated sectors and to serve the reads of the overlays.
+     */
+    private FileChannel readChannel;
+    
+    /**
+     * The most recently resolved trees indexed by absolute path.
+     */
+    private final Map<String, Tree<Node>> resolvedPaths;
+
+    /**
+     * The most recently built absolute paths indexed by tree.
+     */
+    private final Map<Tree<Node>, String> absolutePaths;
+    
+    /**
+     * The open-file table, the open handles indexed by descriptor.
+     */
+    private final Map<Integer, FileHandle> openFiles;
+    
+    /**
+     * The descriptor of the next opened file.
+     */
+    private int nextDescriptor;
+    
+    /**
+     * The inode number of the next created node.
+     */
+    private long nextInode;
 
     /**
      * Create a new disk.
@@ -84,13 +267,65 @@ public class Disk {
      * @param sectorSize The size of a single sector.
      */
     public Disk(String path, int sectorAmount, int sectorSize) {
-        SectorBuilder builder = new SectorBuilder();
+        this(path, new int[] { sectorAmount }, new int[] { sectorSize });
+    }
+
+    /**
+     * Create a new disk split into pools of sectors of different sizes.
+     * The sectors of a file are allocated in the pool that best fits its size.
+     *
+     * @param path The path where the disk will be written.
+     * @param sectorAmounts The amount of sectors of each pool.
+     * @param sectorSizes The size of a single sector of each pool.
+     */
+    public Disk(String path, int[] sectorAmounts, int[] sectorSizes) {
+        if (sectorAmounts.length == 0 || sectorAmounts.length != sectorSizes.length) {
+            throw new IllegalArgumentException("Each pool must have a sector amount and a sector size.");
+        }
+        
+        int first = 0;
+        int biggest = 0;
+        long offset = 0;
+        
+        this.pools = new BlockPool[sectorAmounts.length];
+        for (int i = 0; i < pools.length; i++) {
+            if (sectorAmounts[i] < 0 || sectorSizes[i] <= 0) {
+                throw new IllegalArgumentException("Invalid pool " + sectorAmounts[i] + ":" + sectorSizes[i] + ".");
+            }
+            pools[i] = new BlockPool(first, sectorAmounts[i], sectorSizes[i], offset);
+            first += sectorAmounts[i];
+            offset += (long) sectorAmounts[i] * sectorSizes[i];
+            biggest = Math.max(biggest, sectorSizes[i]);
+        }
+        
         this.file = new java.io.File(path);
-        this.sectorSize = sectorSize;
-        this.sectorAmount = sectorAmount;
-        this.root = new Tree<>(new Directory(""));
-        this.totalSectors = builder.create(this.sectorAmount);
-        this.availableSectors = new ArrayList<>(this.totalSectors);
+        this.sectorAmount = first;
+        this.nextInode = 1;
+        this.root = new Tree<>(new Directory(nextInode++, ""));
+        this.buffers = new IdentityHashMap<>();
+        this.bufferedNodes = new ArrayList<>();
+        this.bufferedChars = 0;
+        this.promises = new IdentityHashMap<>();
+        this.promisedSectors = new int[pools.length];
+        this.delayedAllocation = false;
+        this.inlineThreshold = 0;
+        this.tailPacking = false;
+        this.tailUsed = new int[sectorAmount];
+        this.tailCount = new int[sectorAmount];
+        this.zeros = new char[biggest];
+        this.compression = false;
+        this.deduplication = false;
+        this.chunkIndex = new HashMap<>();
+        this.chunkDigests = new ByteBuffer[sectorAmount];
+        this.indexedSectors = new BitSet(sectorAmount);
+        this.openFiles = new LinkedHashMap<>();
+        this.snapshots = new Tree<>(root, new Directory(nextInode++, SNAPSHOTS), true);
+        this.snapshots.getData().setReadOnly(true);
+        this.base = null;
+        this.overlaid = new BitSet();
+        this.resolvedPaths = createPathCache();
+        this.absolutePaths = createPathCache();
+        this.nextDescriptor = 0;
         this.current = root;
         if (file.exists()) {
             file.delete();
@@ -98,6 +333,69 @@ public class Disk {
         writeZeros();
     }
 
+    /**
+     * Create a thin clone of a disk. The new disk is an overlay whose image only
+     * holds the sectors written after the clone, the rest are read from the base.
+     * The metadata is copied and the base becomes read-only.
+     *
+     * @param path The path where the image of the overlay will be written.
+     * @param base The base disk.
+     * @throws java.io.IOException If an I/O error occurs creating the image.
+     */
+    public Disk(String path, Disk base) throws IOException {
+        if (new java.io.File(path).getCanonicalFile().equals(base.file.getCanonicalFile())) {
+            throw new FileAlreadyExistsException("The image \"" + path + "\" is the image of the base disk.");
+        }
+        base.flush();
+        
+        this.pools = new BlockPool[base.pools.length];
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = new BlockPool(base.pools[i]);
+        }
+        
+        this.file = new java.io.File(path);
+        this.sectorAmount = base.sectorAmount;
+        this.nextInode = base.nextInode;
+        this.root = cloneTree(base.root);
+        this.buffers = new IdentityHashMap<>();
+        this.bufferedNodes = new ArrayList<>();
+        this.bufferedChars = 0;
+        this.promises = new IdentityHashMap<>();
+        this.promisedSectors = new int[pools.length];
+        this.delayedAllocation = base.delayedAllocation;
+        this.inlineThreshold = base.inlineThreshold;
+        this.tailPacking = base.tailPacking;
+        this.tailUsed = base.tailUsed.clone();
+        this.tailCount = base.tailCount.clone();
+        this.zeros = new char[base.zeros.length];
+        this.compression = base.compression;
+        this.deduplication = base.deduplication;
+        this.chunkIndex = new HashMap<>();
+        for (Map.Entry<ByteBuffer, IntList> entry : base.chunkIndex.entrySet()) {
+            chunkIndex.put(entry.getKey(), new IntList(entry.getValue()));
+        }
+        // The digests are never modified, they are shared with the base.
+        this.chunkDigests = base.chunkDigests.clone();
+        this.indexedSectors = (BitSet) base.indexedSectors.clone();
+        this.openFiles = new LinkedHashMap<>();
+        Node snapshotsNode = base.snapshots.getData();
+        this.snapshots = new Tree<>(root, cloneNode(snapshotsNode, snapshotsNode.getInode()), true);
+        for (Tree<Node> snapshot : base.snapshots.children()) {
+            addTree(snapshots, cloneTree(snapshot));
+        }
+        this.base = base;
+        this.overlaid = new BitSet(sectorAmount);
+        this.resolvedPaths = createPathCache();
+        this.absolutePaths = createPathCache();
+        this.nextDescriptor = 0;
+        this.current = root;
+        // The image is empty, the unwritten sectors are holes of the host file.
+        Files.deleteIfExists(file.toPath());
+        Files.createFile(file.toPath());
+        // The base is frozen only once the overlay exists, a failed clone leaves it writable.
+        base.frozen = true;
+    }
+
     /**
      * Change the current directory.
      *
@@ -173,7 +471,7 @@ public class Disk {
             throw new FileNotFoundException("File \"" + path + "\" not found.");
         }
         
-        return readSectors(node.getSectors());
+        return readContent(node);
     }
     
     public String getAbsolutePath(String path) throws IOException {
@@ -200,514 +498,3154 @@ public class Disk {
             throw new FileNotFoundException("File \"" + path + "\" not found.");
         }
         
-        List<Sector> oldSectors = node.getSectors();
-        markSectorsAsAvailable(oldSectors);
-        
-        int required = requiredSectors(content);
-        if (required > availableSectors.size()) {
-            throw new IOException("Insufficient disk space.");
-        }
-
-        List<Sector> newSectors = getSectors(required);
-        writeToSectors(newSectors, content);
-        node.setSectors(newSectors);
+        rewriteContent(node, content);
     }
     
     /**
-     * Obtains the size of a file. The size is given as the total of chars that are in the file.
-     * 
+     * Read a range of the content of a file.
+     * Only the sectors that cover the range are read.
+     *
      * @param path The path of the file.
-     * @return The size of the file.
-     * @throws IOException 
+     * @param offset The position of the first character.
+     * @param length The maximum amount of characters to read.
+     * @return The content of the range, shorter than length at the end of the file.
+     * @throws java.io.IOException If the file doesn't exist or is a directory.
      */
-    public int getFileSize(String path) throws IOException
-    {
-        return getFileContent(path).toCharArray().length;
+    public String read(String path, long offset, int length) throws IOException {
+        return read(searchFile(path), offset, length);
     }
     
     /**
-     * Obtains the properties of a file.
-     * 
+     * Append a content at the end of a file.
+     * Only the last partial sector is rewritten, the rest of the file is not touched.
+     *
      * @param path The path of the file.
-     * @return The file properties as a dictionary.
-     * @throws IOException If any error occur.
+     * @param data The content to append.
+     * @throws java.io.IOException If the file doesn't exist or there isn't enough space.
      */
-    public Map<String, Object> getFileProperties(String path) throws IOException
-    {
-        Node node = searchNode(path);
-        
-        if (node == null) {
-            throw new FileNotFoundException("File \"" + path + "\" not found.");
-        }
-        
-        Map<String, Object> properties = new TreeMap<>((Object o1, Object o2) -> 1);
-        
-        properties.put("name", node.getName());
-        properties.put("extension", node.getExtension());
-        properties.put("size", getFileSize(path));
-        properties.put("absolute_path", getAbsolutePath(path));
-        properties.put("creation_date", node.getCreationDate());
-        properties.put("modification_date", node.getLastModificationDate());
-        
-        return properties;
+    public void append(String path, String data) throws IOException {
+        append(searchFile(path), data);
     }
     
     /**
-     * Create a new file.
+     * Write a content at a position of a file, replacing the characters in the range.
+     * Only the sectors that cover the range are read and written. Writing past the end
+     * of the file fills the gap with zeros.
      *
-     * @param path The path where the file will be created.
-     * @param content The content to write in the file.
-     * @throws java.io.IOException if an I/O error occurs writing to or creating
-     * the file.
+     * @param path The path of the file.
+     * @param offset The position of the first character.
+     * @param data The content to write.
+     * @throws java.io.IOException If the file doesn't exist or there isn't enough space.
      */
-    public void createFile(String path, String content) throws Exception {
-        if (!FileUtils.isValidPath(path)) {
-            throw new MalformedURLException("Invalid file name.");
-        }
-        if (exists(path)) {
-            throw new FileAlreadyExistsException("File \"" + path + "\" already exists.");
-        }
-
-        String fileName = FileUtils.getFileName(path);
-        String directory = FileUtils.getDirectory(path);
-
-        Tree<Node> parent = searchTree(directory);
-        if (parent == null || !parent.getData().isDirectory()) {
-            throw new FileNotFoundException("Directory \"" + directory + "\" doesn't exists.");
-        }
-
-        int required = requiredSectors(content);
-        if (required > availableSectors.size()) {
-            throw new IOException("Insufficient disk space.");
-        }
-
-        List<Sector> sectors = getSectors(required);
-        Node node = new File(fileName, sectors);
-        writeToSectors(sectors, content);
-        parent.add(node);
+    public void write(String path, long offset, String data) throws IOException {
+        write(searchFile(path), offset, data);
     }
     
     /**
-     * Delete a file or directory.
+     * Change the size of a file. The surplus sectors are released and only the
+     * new last sector is rewritten. Growing the file fills it with zeros.
      *
      * @param path The path of the file.
-     * @throws java.io.FileNotFoundException If the file doesn't exists.
-     * @throws java.io.IOException if an I/O error occurs deleting the file.
+     * @param length The new size.
+     * @throws java.io.IOException If the file doesn't exist or there isn't enough space.
      */
-    public void delete(String path) throws IOException {
+    public void truncate(String path, long length) throws IOException {
+        truncate(searchFile(path), length);
+    }
+    
+    /**
+     * Open a file. The handle is bound to the file so its operations don't
+     * resolve the path again, even if the file is moved or renamed.
+     *
+     * @param path The path of the file.
+     * @return The handle, registered in the open-file table until it is closed.
+     * @throws java.io.IOException If the file doesn't exist or is a directory.
+     */
+    public FileHandle open(String path) throws IOException {
         Tree<Node> tree = searchTree(path);
-        Node node = tree.getData();
+        
         if (tree == null) {
-            throw new FileNotFoundException("File \"" + path + "\" doesn't exist.");
-        }
-        if (tree.isRoot()) {
-            throw new AccessDeniedException("Root folder cannot be deleted.");
+            throw new FileNotFoundException("File \"" + path + "\" not found.");
         }
-        deleteTree(tree);
-        if (current.getData().equals(node)) {
-            current = tree.parent();
+        if (tree.getData().isDirectory()) {
+            throw new IOException("The path is a directory.");
         }
+        
+        FileHandle handle = new FileHandle(this, nextDescriptor++, tree);
+        openFiles.put(handle.getDescriptor(), handle);
+        return handle;
     }
-
+    
     /**
-     * Create a new directory.
+     * Get an open file by its descriptor.
      *
-     * @param path The path where the directory will be created.
-     * @throws java.io.IOException if an I/O error occurs creating the
-     * directory.
+     * @param descriptor The descriptor.
+     * @return The handle, null if there is no open file with the descriptor.
      */
-    public void createDirectory(String path) throws Exception {
-        if (!FileUtils.isValidPath(path)) {
-            throw new MalformedURLException("Invalid directory name.");
-        }
-        if (exists(path)) {
-            throw new FileAlreadyExistsException("Directory \"" + path + "\" already exist.");
-        }
-
-        String name = FileUtils.getFileName(path);
-        String directory = FileUtils.getDirectory(path);
-
-        Tree<Node> parent = searchTree(directory);
-        if (parent == null || !parent.getData().isDirectory()) {
-            throw new FileNotFoundException("Directory \"" + directory + "\" doesn't exist.");
-        }
-
-        Node node = new Directory(name);
-        parent.add(node);
+    public FileHandle getOpenFile(int descriptor) {
+        return openFiles.get(descriptor);
     }
-
+    
     /**
-     * Change a file location.
+     * Get the open files.
      *
-     * @param src The path of the file.
-     * @param dest The new path of the file.
-     * @throws java.io.IOException if an I/O error occurs moving the file.
+     * @return The handles in the order they were opened.
      */
-    public void moveFile(String src, String dest) throws Exception {
-        Tree<Node> srcTree = searchTree(src);
-
-        if (srcTree == null) {
-            throw new FileNotFoundException("File \"" + src + "\" doesn't exist.");
-        }
-        
-        Tree<Node> destTree = searchTree(dest);
-        
-        if (destTree != null) {
-            if (destTree.getData().isDirectory()) {
-                srcTree.setParent(destTree);
-            }
-            else {
-                throw new IOException("File \"" + dest + "\" already exists.");
-            }
-        }
-        else {
-            String fileName = FileUtils.getFileName(dest);
-            String directory = FileUtils.getDirectory(dest);
-            
-            if (!directory.isEmpty()) {
-                destTree = searchTree(directory);
-
-                if (destTree == null) {
-                    throw new FileNotFoundException("Directory '" + directory + "' doesn't exist.");
-                }
-
-                srcTree.setParent(destTree);
-            }
-            
-            srcTree.getData().setName(fileName);
-        }
+    public List<FileHandle> getOpenFiles() {
+        return new ArrayList<>(openFiles.values());
     }
-
+    
     /**
-     * Get the files and directories in a directory.
+     * Open a stream to read the content of a file sector by sector.
+     * Only one sector is kept in memory at a time. The characters are encoded
+     * with the default charset, like the files of the host.
      *
-     * @param directory The path of the directory.
-     * @return The list of children of the directory. Null if the srcTree is not a directory.
-     * @throws java.io.FileNotFoundException If the file doesn't exists.
-     * @throws java.io.IOException if an I/O error occurs reading the directory.
+     * @param path The path of the file.
+     * @return The stream.
+     * @throws java.io.IOException If the file doesn't exist or is a directory.
      */
-    public List<Node> getFiles(String directory) throws IOException 
+    public InputStream openInputStream(String path) throws IOException {
+        return openInputStream(searchFile(path));
+    }
+    
+    /**
+     * Open a stream to read the content of a file sector by sector.
+     *
+     * @param node The file.
+     * @return The stream.
+     */
+    InputStream openInputStream(Node node) {
+        return new ContentInputStream(node);
+    }
+    
+    /**
+     * Open a stream to replace the content of a file, the file is created if it doesn't exist.
+     * The content is written in groups of whole sectors as it arrives, so at
+     * most {@link #BUFFER_LIMIT} characters are kept in memory. Small contents are
+     * written on close like {@link #changeFileContent(String, String)} does.
+     * A streamed content is written to new sectors that replace the old ones on
+     * close, so the file keeps its old content if the stream fails.
+     * The file must not be read until the stream is closed.
+     *
+     * @param path The path of the file.
+     * @return The stream.
+     * @throws java.io.IOException If the file is a directory or can't be created.
+     */
+    public OutputStream openOutputStream(String path) throws IOException {
+        return openOutputStream(searchOrCreateFile(path));
+    }
+    
+    /**
+     * Open a stream to replace the content of a file.
+     *
+     * @param node The file.
+     * @return The stream.
+     */
+    OutputStream openOutputStream(Node node) throws IOException {
+        checkWritable(node);
+        return new ContentOutputStream(node);
+    }
+    
+    /**
+     * Reserve a contiguous region of sectors for a file.
+     * The reserved sectors are kept by the file even if its content is smaller,
+     * so the file can grow without taking sectors scattered across the disk.
+     *
+     * @param path The path of the file.
+     * @param bytes The amount of characters to reserve.
+     * @throws java.io.IOException If the file doesn't exist or there isn't enough space.
+     */
+    public void preallocate(String path, int bytes) throws IOException {
+        Node node = searchNode(path);
+        
+        if (node == null) {
+            throw new FileNotFoundException("File \"" + path + "\" not found.");
+        }
+        if (node.isDirectory()) {
+            throw new IOException("Cannot preallocate a directory.");
+        }
+        checkWritable(node);
+        
+        IntList sectors = node.getSectors();
+        if (countSectors(sectors) == 0 && node.getTailSector() == -1) {
+            node.setPool(choosePool(bytes));
+        }
+        
+        int pool = node.getPool();
+        int required = requiredSectors(bytes, pools[pool].getSectorSize());
+        
+        if (required - countSectors(sectors) > pools[pool].getAvailableSectors() - pendingSectors(node, pool)) {
+            throw new IOException("Insufficient disk space.");
+        }
+        
+        node.setReservedSectors(Math.max(required, node.getReservedSectors()));
+        
+        if (node.getInlineContent() != null || node.getTailSector() != -1 || node.isSparse()) {
+            // Move the content to the reserved region.
+            writeContent(node, readContent(node));
+        }
+        else if (required > sectors.size()) {
+            // Free sectors are already wiped so no write is required.
+            pools[pool].allocate(sectors, lastSector(sectors), required - sectors.size());
+        }
+        if (buffers.containsKey(node)) {
+            promise(node, buffers.get(node));
+        }
+    }
+    
+    /**
+     * Enable or disable the delayed allocation.
+     * When enabled the content of created or modified files is kept in memory
+     * and their sectors are chosen when the buffers are flushed, once the final
+     * size of the files is known.
+     *
+     * @param delayedAllocation The flag.
+     * @throws java.io.IOException If an I/O error occurs flushing the buffers.
+     */
+    public void setDelayedAllocation(boolean delayedAllocation) throws IOException {
+        this.delayedAllocation = delayedAllocation;
+        if (!delayedAllocation) {
+            flush();
+        }
+    }
+    
+    /**
+     * Check if the allocation of sectors is delayed.
+     *
+     * @return The flag.
+     */
+    public boolean isDelayedAllocation() {
+        return delayedAllocation;
+    }
+    
+    /**
+     * Set the maximum length of the content stored inline in the file nodes.
+     * Inline files don't use any sector and are read without any I/O.
+     * Only affects the files written after this call.
+     *
+     * @param inlineThreshold The threshold, zero to disable inline storage.
+     */
+    public void setInlineThreshold(int inlineThreshold) {
+        this.inlineThreshold = Math.max(0, inlineThreshold);
+    }
+    
+    /**
+     * Get the maximum length of the content stored inline in the file nodes.
+     *
+     * @return The threshold.
+     */
+    public int getInlineThreshold() {
+        return inlineThreshold;
+    }
+    
+    /**
+     * Enable or disable the tail packing.
+     * When enabled the last partial sector of the files is stored in sectors
+     * shared with other files. Only affects the files written after this call.
+     *
+     * @param tailPacking The flag.
+     */
+    public void setTailPacking(boolean tailPacking) {
+        this.tailPacking = tailPacking;
+    }
+    
+    /**
+     * Check if the tail packing is enabled.
+     *
+     * @return The flag.
+     */
+    public boolean isTailPacking() {
+        return tailPacking;
+    }
+    
+    /**
+     * Enable or disable the compression of the files.
+     * When enabled the content of the files is compressed in chunks of
+     * COMPRESSION_CHUNK characters, each one can be read without the others.
+     * Inline and preallocated files are not compressed.
+     * Only affects the files written after this call.
+     *
+     * @param compression The flag.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+    
+    /**
+     * Check if the compression of the files is enabled.
+     *
+     * @return The flag.
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+    
+    /**
+     * Enable or disable the deduplication of sectors.
+     * When enabled each written sector is hashed and a sector with the same
+     * content as a stored one is not written, the file shares the stored one.
+     * Only the sectors written while it is enabled are deduplicated.
+     *
+     * @param deduplication The flag.
+     */
+    public void setDeduplication(boolean deduplication) {
+        this.deduplication = deduplication;
+        if (!deduplication) {
+            chunkIndex.clear();
+            Arrays.fill(chunkDigests, null);
+            indexedSectors.clear();
+        }
+    }
+    
+    /**
+     * Check if the deduplication of sectors is enabled.
+     *
+     * @return The flag.
+     */
+    public boolean isDeduplication() {
+        return deduplication;
+    }
+    
+    /**
+     * Close the channel the disk keeps open between reads, and the ones of
+     * the disks it is based on. The buffered content is not written, call
+     * {@link #flush()} first to keep it. A closed disk can still be used,
+     * the channel is opened again by the next read that needs it.
+     *
+     * @throws java.io.IOException If an I/O error occurs closing a channel.
+     */
+    public void close() throws IOException {
+        try {
+            if (readChannel != null) {
+                readChannel.close();
+                readChannel = null;
+            }
+        }
+        finally {
+            if (base != null) {
+                base.close();
+            }
+        }
+    }
+    
+    /**
+     * Allocate sectors for all the buffered files and write them to disk
+     * in a single pass.
+     *
+     * @throws java.io.IOException If an I/O error occurs writing the buffers.
+     */
+    public void flush() throws IOException {
+        if (buffers.isEmpty()) {
+            return;
+        }
+        
+        Batch batch = new Batch();
+        
+        for (Node node : bufferedNodes) {
+            String content = buffers.get(node);
+            // The sectors of the file are allocated now, they are no longer promised.
+            withdraw(node);
+            try {
+                layoutContent(node, content, batch);
+            }
+            catch (IOException ex) {
+                promise(node, content);
+                throw ex;
+            }
+        }
+        
+        buffers.clear();
+        bufferedNodes.clear();
+        bufferedChars = 0;
+        promises.clear();
+        Arrays.fill(promisedSectors, 0);
+        batch.commit();
+    }
+    
+    /**
+     * Obtains the size of a file. The size is given as the total of chars that are in the file.
+     * 
+     * @param path The path of the file.
+     * @return The size of the file.
+     * @throws IOException If the file doesn't exist.
+     */
+    public long getFileSize(String path) throws IOException
     {
-        Tree<Node> tree = searchTree(directory);
-
+        Node node = searchNode(path);
+        
+        if (node == null) {
+            throw new FileNotFoundException("File \"" + path + "\" not found.");
+        }
+        
+        return node.getSize();
+    }
+    
+    /**
+     * Take a snapshot of the file system. Only the metadata is copied, the
+     * sectors are shared with the live files and copied when they change.
+     * The snapshot is browsed read-only in the directory /.snapshots/NAME.
+     *
+     * @param name The name of the snapshot.
+     * @throws java.io.IOException If the name is invalid or already used.
+     */
+    public void snapshot(String name) throws IOException {
+        if (!FileUtils.isValidPath(name) || name.contains("/") || name.equals("..")) {
+            throw new MalformedURLException("Invalid snapshot name.");
+        }
+        if (findSnapshot(name) != null) {
+            throw new FileAlreadyExistsException("Snapshot \"" + name + "\" already exists.");
+        }
+        
+        // Buffered contents must be in their sectors to be shared.
+        flush();
+        
+        Node node = new Directory(nextInode++, name);
+        node.setReadOnly(true);
+        Tree<Node> snapshot = new Tree<>(node);
+        for (Tree<Node> child : root.children()) {
+            addTree(snapshot, copyTree(child, false));
+        }
+        addTree(snapshots, snapshot);
+    }
+    
+    /**
+     * Get the names of the snapshots.
+     *
+     * @return The names in the order the snapshots were taken.
+     */
+    public List<String> getSnapshots() {
+        List<String> names = new ArrayList<>();
+        for (Tree<Node> snapshot : snapshots.children()) {
+            names.add(snapshot.getData().getName());
+        }
+        return names;
+    }
+    
+    /**
+     * Restore the file system to a snapshot. The snapshot is kept.
+     * The open files are closed and the current directory becomes the root.
+     *
+     * @param name The name of the snapshot.
+     * @throws java.io.IOException If the snapshot doesn't exist.
+     */
+    public void rollback(String name) throws IOException {
+        Tree<Node> snapshot = findSnapshot(name);
+        
+        if (snapshot == null) {
+            throw new FileNotFoundException("Snapshot \"" + name + "\" not found.");
+        }
+        checkWritable(root.getData());
+        
+        Batch batch = new Batch();
+        Set<Node> released = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Tree<Node> child : root.children()) {
+            releaseTree(child, batch, released);
+        }
+        forget(released);
+        batch.commit();
+        
+        root.clear();
+        resolvedPaths.clear();
+        absolutePaths.clear();
+        for (Tree<Node> child : snapshot.children()) {
+            addTree(root, copyTree(child, true));
+        }
+        current = root;
+    }
+    
+    /**
+     * Delete a snapshot releasing the sectors that only the snapshot keeps.
+     *
+     * @param name The name of the snapshot.
+     * @throws java.io.IOException If the snapshot doesn't exist.
+     */
+    public void deleteSnapshot(String name) throws IOException {
+        Tree<Node> snapshot = findSnapshot(name);
+        
+        if (snapshot == null) {
+            throw new FileNotFoundException("Snapshot \"" + name + "\" not found.");
+        }
+        checkWritable(root.getData());
+        
+        invalidatePaths(snapshot);
+        Batch batch = new Batch();
+        Set<Node> released = Collections.newSetFromMap(new IdentityHashMap<>());
+        releaseSnapshot(snapshot, batch, released);
+        forget(released);
+        batch.commit();
+        snapshots.remove(snapshot.getData());
+        
+        if (isInside(current, snapshot)) {
+            current = root;
+        }
+    }
+    
+    /**
+     * Get the base of an overlay.
+     *
+     * @return The base disk, null if the disk is not an overlay.
+     */
+    public Disk getBase() {
+        return base;
+    }
+    
+    /**
+     * Check if the disk is the read-only base of an overlay.
+     *
+     * @return The flag.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+    
+    /**
+     * Get the amount of sectors written in the image of an overlay.
+     *
+     * @return The amount of sectors, all the sectors if the disk is not an overlay.
+     */
+    public int getOverlaidSectors() {
+        return base != null ? overlaid.cardinality() : sectorAmount;
+    }
+    
+    /**
+     * Get the amount of sectors of the disk, all the pools included.
+     *
+     * @return The amount of sectors.
+     */
+    public int getSectorAmount() {
+        return sectorAmount;
+    }
+    
+    /**
+     * Get the size of the files under a path. The totals of the directories
+     * are kept updated on every change, so no file is visited.
+     *
+     * @param path The path of the file or directory.
+     * @return The total size.
+     * @throws java.io.FileNotFoundException If the file doesn't exists.
+     */
+    public long getTotalSize(String path) throws FileNotFoundException {
+        Node node = searchNode(path);
+        if (node == null) {
+            throw new FileNotFoundException("File \"" + path + "\" not found.");
+        }
+        return node.getTotalSize();
+    }
+    
+    /**
+     * Get the amount of sectors allocated to the files under a path, holes
+     * and tails excluded. Sectors shared by several files are counted for each one.
+     *
+     * @param path The path of the file or directory.
+     * @return The total amount of sectors.
+     * @throws java.io.FileNotFoundException If the file doesn't exists.
+     */
+    public long getTotalSectors(String path) throws FileNotFoundException {
+        Node node = searchNode(path);
+        if (node == null) {
+            throw new FileNotFoundException("File \"" + path + "\" not found.");
+        }
+        return node.getTotalSectors();
+    }
+    
+    /**
+     * Get the amount of sectors in use, all the pools included.
+     * Sectors shared by several files are counted once.
+     *
+     * @return The amount of sectors.
+     */
+    public int getUsedSectors() {
+        int used = 0;
+        for (BlockPool pool : pools) {
+            used += pool.getSectorAmount() - pool.getAvailableSectors();
+        }
+        return used;
+    }
+    
+    /**
+     * Get the ratio between the sectors used by the files and the sectors in use.
+     * Sectors shared by deduplication, copies or snapshots are counted once for
+     * each file that uses them in the first amount and once in the second.
+     *
+     * The pools keep both amounts, so the ratio doesn't depend on the size of the disk.
+     *
+     * @return The ratio, 1 if no sector is shared or the disk is empty.
+     */
+    public double getDeduplicationRatio() {
+        long logical = 0;
+        int physical = 0;
+        
+        for (BlockPool pool : pools) {
+            logical += pool.getTotalReferences();
+            physical += pool.getSectorAmount() - pool.getAvailableSectors();
+        }
+        return physical == 0 ? 1 : (double) logical / physical;
+    }
+    
+    /**
+     * Obtains the amount of characters of disk space used by a file.
+     * Holes, inline content and buffered content don't use disk space.
+     * 
+     * @param path The path of the file.
+     * @return The allocated size of the file.
+     * @throws IOException If the file doesn't exist.
+     */
+    public long getAllocatedSize(String path) throws IOException
+    {
+        Node node = searchNode(path);
+        
+        if (node == null) {
+            throw new FileNotFoundException("File \"" + path + "\" not found.");
+        }
+        
+        return getAllocatedSize(node);
+    }
+    
+    /**
+     * Obtains the properties of a file.
+     * 
+     * @param path The path of the file.
+     * @return The file properties as a dictionary.
+     * @throws IOException If any error occur.
+     */
+    public Map<String, Object> getFileProperties(String path) throws IOException
+    {
+        Tree<Node> tree = searchTree(path);
+        
         if (tree == null) {
-            throw new FileNotFoundException("Directory \"" + directory + "\" not found.");
+            throw new FileNotFoundException("File \"" + path + "\" not found.");
+        }
+        
+        return getFileProperties(tree);
+    }
+    
+    /**
+     * Create a new file.
+     *
+     * @param path The path where the file will be created.
+     * @param content The content to write in the file.
+     * @throws java.io.IOException if an I/O error occurs writing to or creating
+     * the file.
+     */
+    public void createFile(String path, String content) throws Exception {
+        ParsedPath parsed = new ParsedPath(path);
+        if (!parsed.isValid()) {
+            throw new MalformedURLException("Invalid file name.");
+        }
+        if (searchTree(parsed) != null) {
+            throw new FileAlreadyExistsException("File \"" + path + "\" already exists.");
+        }
+
+        String fileName = parsed.getFileName();
+
+        Tree<Node> parent = walkTree(parsed, parsed.size() - 1);
+        if (parent == null || !parent.getData().isDirectory()) {
+            throw new FileNotFoundException("Directory \"" + FileUtils.getDirectory(path) + "\" doesn't exists.");
+        }
+        checkWritable(parent.getData());
+
+        Node node = new File(nextInode++, fileName);
+        if (delayedAllocation) {
+            bufferContent(node, content);
+        }
+        else {
+            writeContent(node, content);
+        }
+        parent.add(node);
+    }
+    
+    /**
+     * Delete a file or directory.
+     *
+     * @param path The path of the file.
+     * @throws java.io.FileNotFoundException If the file doesn't exists.
+     * @throws java.io.IOException if an I/O error occurs deleting the file.
+     */
+    public void delete(String path) throws IOException {
+        Tree<Node> tree = searchTree(path);
+        if (tree == null) {
+            throw new FileNotFoundException("File \"" + path + "\" doesn't exist.");
+        }
+        Node node = tree.getData();
+        if (tree.isRoot()) {
+            throw new AccessDeniedException("Root folder cannot be deleted.");
+        }
+        checkWritable(node);
+        boolean inside = isInside(current, tree);
+        invalidatePaths(tree);
+        deleteTree(tree);
+        if (inside) {
+            current = tree.parent();
+        }
+    }
+
+    /**
+     * Create a new directory.
+     *
+     * @param path The path where the directory will be created.
+     * @throws java.io.IOException if an I/O error occurs creating the
+     * directory.
+     */
+    public void createDirectory(String path) throws Exception {
+        ParsedPath parsed = new ParsedPath(path);
+        if (!parsed.isValid()) {
+            throw new MalformedURLException("Invalid directory name.");
+        }
+        if (searchTree(parsed) != null) {
+            throw new FileAlreadyExistsException("Directory \"" + path + "\" already exist.");
+        }
+
+        String name = parsed.getFileName();
+
+        Tree<Node> parent = walkTree(parsed, parsed.size() - 1);
+        if (parent == null || !parent.getData().isDirectory()) {
+            throw new FileNotFoundException("Directory \"" + FileUtils.getDirectory(path) + "\" doesn't exist.");
+        }
+        checkWritable(parent.getData());
+
+        Node node = new Directory(nextInode++, name);
+        parent.add(node);
+    }
+
+    /**
+     * Change a file location.
+     *
+     * @param src The path of the file.
+     * @param dest The new path of the file.
+     * @throws java.io.IOException if an I/O error occurs moving the file.
+     */
+    public void moveFile(String src, String dest) throws Exception {
+        Tree<Node> srcTree = searchTree(src);
+
+        if (srcTree == null) {
+            throw new FileNotFoundException("File \"" + src + "\" doesn't exist.");
+        }
+        checkWritable(srcTree.getData());
+        invalidatePaths(srcTree);
+        
+        ParsedPath destPath = new ParsedPath(dest);
+        Tree<Node> destTree = searchTree(destPath);
+        
+        if (destTree != null) {
+            if (destTree.getData().isDirectory()) {
+                checkWritable(destTree.getData());
+                if (destTree.getChild(srcTree.getData().getName()) != null) {
+                    throw new FileAlreadyExistsException("File \"" + dest + "/" + srcTree.getData().getName() + "\" already exists.");
+                }
+                srcTree.setParent(destTree);
+            }
+            else {
+                throw new IOException("File \"" + dest + "\" already exists.");
+            }
+        }
+        else {
+            String fileName = destPath.getFileName();
+            
+            if (destPath.size() > 1 || destPath.isAbsolute()) {
+                destTree = walkTree(destPath, destPath.size() - 1);
+
+                if (destTree == null) {
+                    throw new FileNotFoundException("Directory '" + FileUtils.getDirectory(dest) + "' doesn't exist.");
+                }
+                checkWritable(destTree.getData());
+
+                // The destination doesn't exist, so the new name is free there.
+                srcTree.parent().remove(srcTree.getData());
+                srcTree.getData().setName(fileName);
+                destTree.add(srcTree);
+            }
+            else if (!srcTree.rename(fileName)) {
+                throw new FileAlreadyExistsException("File \"" + fileName + "\" already exists.");
+            }
+        }
+    }
+
+    /**
+     * Iterate the files and directories in a directory, in creation order.
+     * The entries are read while iterating, nothing is copied, so the first
+     * ones are available at once whatever the size of the directory.
+     *
+     * @param directory The path of the directory.
+     * @param after The name of the entry before the first returned, null to start at the first entry.
+     * @return The iterator.
+     * @throws java.io.FileNotFoundException If the directory or the entry doesn't exists.
+     * @throws java.io.IOException if an I/O error occurs reading the directory.
+     */
+    public Iterator<Node> listFiles(String directory, String after) throws IOException
+    {
+        return listFiles(directory, after, null, false);
+    }
+    
+    /**
+     * Iterate the files and directories in a directory in an order.
+     * The first sorted listing of a directory builds a sorted index of its
+     * entries, the index is then kept updated on every change of the entries
+     * so the next listings return k entries in O(k log n).
+     *
+     * @param directory The path of the directory.
+     * @param after The name of the entry before the first returned, null to start at the first entry.
+     * @param sort SORT_NAME, SORT_MTIME, SORT_SIZE or null for the creation order.
+     * @param descending If the entries are returned in reverse order, only for a sorted listing.
+     * @return The iterator.
+     * @throws java.io.FileNotFoundException If the directory or the entry doesn't exists.
+     * @throws java.io.IOException if an I/O error occurs reading the directory.
+     */
+    public Iterator<Node> listFiles(String directory, String after, String sort, boolean descending) throws IOException
+    {
+        Tree<Node> tree = searchTree(directory);
+
+        if (tree == null) {
+            throw new FileNotFoundException("Directory \"" + directory + "\" not found.");
+        }
+        if (!tree.getData().isDirectory()) {
+            throw new NotDirectoryException("The path is not a directory.");
+        }
+        
+        Iterator<Tree<Node>> children;
+        if (sort == null) {
+            children = tree.childrenAfter(after);
+        }
+        else {
+            if (!tree.hasIndex(sort)) {
+                tree.addIndex(sort, sortKey(sort));
+            }
+            children = tree.sortedChildren(sort, after, descending);
+        }
+        if (children == null) {
+            throw new FileNotFoundException("Entry \"" + after + "\" not found in \"" + directory + "\".");
+        }
+        
+        return new Iterator<Node>() {
+            @Override
+            public boolean hasNext() {
+                return children.hasNext();
+            }
+
+            @Override
+            public Node next() {
+                return children.next().getData();
+            }
+        };
+    }
+    
+    /**
+     * Get the key of the sorted index of an order.
+     *
+     * @param sort SORT_NAME, SORT_MTIME or SORT_SIZE.
+     * @return The function that obtains the key of a node, null to order by name.
+     */
+    private ToLongFunction<Node> sortKey(String sort) {
+        switch (sort) {
+            case SORT_NAME:
+                return null;
+            case SORT_MTIME:
+                return Node::getLastModificationTime;
+            case SORT_SIZE:
+                return Node::getSize;
+            default:
+                throw new IllegalArgumentException("Unknown order \"" + sort + "\".");
+        }
+    }
+
+    /**
+     * Get the files and directories in a directory.
+     *
+     * @param directory The path of the directory.
+     * @return The list of children of the directory. Null if the srcTree is not a directory.
+     * @throws java.io.FileNotFoundException If the file doesn't exists.
+     * @throws java.io.IOException if an I/O error occurs reading the directory.
+     */
+    public List<Node> getFiles(String directory) throws IOException 
+    {
+        Tree<Node> tree = searchTree(directory);
+
+        if (tree == null) {
+            throw new FileNotFoundException("Directory \"" + directory + "\" not found.");
+        }
+        
+        if (!tree.getData().isDirectory()) {
+            throw new NotDirectoryException("The path is not a directory.");
+        }
+        
+        List<Node> list = new ArrayList();
+        
+        for (Tree<Node> child : tree.children()) {
+            list.add(child.getData());
+        }
+
+        return list;
+    }
+
+    /**
+     * Get the files that satisfies certain regular expression in a directory.
+     *
+     * @param directory The path of the directory.
+     * @param regex The regular expression.
+     * @return The list of children of the directory.
+     * @throws java.io.IOException if an I/O error occurs reading the directory.
+     */
+    public List<String> getFiles(String directory, String regex) throws IOException {
+        Tree<Node> tree = searchTree(directory);
+        
+        if (tree == null) {
+            throw new FileNotFoundException("Directory \"" + directory + "\" not found.");
+        }
+        
+        if (!tree.getData().isDirectory()) {
+            throw new NotDirectoryException("The path is not a directory.");
+        }
+        
+        try {
+            return getFiles(tree, regex.replace("*", ".*"));
+        }
+        catch (PatternSyntaxException ex) {
+            throw new IOException("Invalid regular expression: " + regex);
+        }
+    }
+
+    /**
+     * Get the file system tree.
+     *
+     * @param path The path of the directory.
+     * @return The file system tree.
+     * @throws java.io.IOException If the directory is not found.
+     */
+    public Tree<Node> getTree(String path) throws IOException {
+        Tree<Node> tree = searchTree(path);
+        
+        if (tree == null) {
+            throw new FileNotFoundException("Directory \"" + path + "\" not found.");
+        }
+        
+        if (!tree.getData().isDirectory()) {
+            throw new NotDirectoryException("The path is not a directory.");
+        }
+        
+        return tree;
+    }
+    
+    public List<String> getSectorsContent() {
+        List<String> list = new ArrayList<>();
+        StringBuilder content = new StringBuilder(zeros.length);
+        
+        try {
+            flush();
+        }
+        catch (IOException ex) { }
+        
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            char[] buffer = new char[zeros.length];
+            for (BlockPool pool : pools) {
+                for (int i = 0; i < pool.getSectorAmount(); i++) {
+                    content.setLength(0);
+                    strip(buffer, loadSector(channel, pool.getFirst() + i, buffer, pool.getSectorSize()), content);
+                    list.add(content.toString());
+                }
+            }
+        }
+        catch (IOException ex) { }
+        
+        while (list.size() < sectorAmount) {
+            list.add("");
+        }
+        
+        return list;
+    }
+    
+    /**
+     * Get the files that satisfies certain regular expression in the tree.
+     *
+     * @param tree The tree.
+     * @param regex The regular expression.
+     * @return The list of children that satisfies regex.
+     */
+    private List<String> getFiles(Tree<Node> tree, String regex) throws PatternSyntaxException {
+        List<String> list = new ArrayList<>();
+        Node node;
+        
+        for (Tree<Node> child : tree.children())
+        {
+            node = child.getData();
+            if (node.getName().matches(regex)) {
+                list.add(getAbsolutePath(child));
+            }
+            if (node.isDirectory()) {
+                list.addAll(getFiles(child, regex));
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Search a subtree in the current directory or in the root. If the path
+     * starts with '/' the search will start in the root, otherwise if will
+     * start in the current directory.
+     *
+     * @param path The path to search.
+     * @return The subtree if found, otherwise null.
+     */
+    private Tree<Node> searchTree(String path) {
+        if (path.startsWith("/")) {
+            // A normalized absolute path is found without parsing it.
+            Tree<Node> cached = resolvedPaths.get(path);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return searchTree(new ParsedPath(path));
+    }
+    
+    /**
+     * Search the subtree of a parsed path. The found subtrees are cached by
+     * normalized absolute path, except the relative paths that start with '..'.
+     *
+     * @param path The path to search.
+     * @return The subtree if found, otherwise null.
+     */
+    private Tree<Node> searchTree(ParsedPath path) {
+        if (path.size() == 0) {
+            return path.isAbsolute() ? root : current;
+        }
+        
+        String key = null;
+        if (path.isAbsolute()) {
+            key = path.normalize();
+        }
+        else if (!path.isParentReference(0)) {
+            key = current.isRoot() ? "/" + path.normalize() : getCurrentDirectory() + "/" + path.normalize();
+        }
+        if (key != null) {
+            Tree<Node> cached = resolvedPaths.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        
+        Tree<Node> tree = walkTree(path, path.size());
+        if (tree != null && key != null) {
+            resolvedPaths.put(key, tree);
+        }
+        return tree;
+    }
+    
+    /**
+     * Search a subtree walking the tree one name at a time.
+     *
+     * @param path The path to search.
+     * @param count The amount of names of the path to walk, the rest are ignored.
+     * @return The subtree if found, otherwise null.
+     */
+    private Tree<Node> walkTree(ParsedPath path, int count) {
+        Tree<Node> actual = path.isAbsolute() ? root : current;
+        
+        for (int i = 0; i < count && actual != null; i++) {
+            if (path.isParentReference(i)) {
+                if (!actual.isRoot()) {
+                    actual = actual.parent();
+                }
+            }
+            else if (actual == root && path.nameEquals(i, SNAPSHOTS)) {
+                actual = snapshots;
+            }
+            else {
+                actual = actual.getChild(path.get(i));
+            }
+        }
+        
+        return actual;
+    }
+
+    /**
+     * Search a srcTree in the current directory or in the root. If the path starts
+     * with '/' the search will start in the root, otherwise if will start in
+     * the current directory.
+     *
+     * @param path The path to search.
+     * @return The srcTree if found, otherwise null.
+     */
+    private Node searchNode(String path) {
+        Tree<Node> actual = searchTree(path);
+        return actual != null ? actual.getData() : null;
+    }
+    
+    /**
+     * Obtains the properties of a file.
+     * 
+     * @param tree The tree of the file.
+     * @return The file properties as a dictionary.
+     */
+    Map<String, Object> getFileProperties(Tree<Node> tree)
+    {
+        Node node = tree.getData();
+        Map<String, Object> properties = new LinkedHashMap<>();
+        
+        properties.put("inode", node.getInode());
+        properties.put("name", node.getName());
+        properties.put("extension", node.getExtension());
+        properties.put("size", node.getSize());
+        properties.put("allocated_size", getAllocatedSize(node));
+        properties.put("compression_ratio", String.format("%.2f", node.getCompressionRatio()));
+        properties.put("absolute_path", getAbsolutePath(tree));
+        properties.put("creation_date", node.getCreationDate());
+        properties.put("modification_date", node.getLastModificationDate());
+        
+        return properties;
+    }
+    
+    /**
+     * Read a range of the content of a file.
+     *
+     * @param node The file.
+     * @param offset The position of the first character.
+     * @param length The maximum amount of characters to read.
+     * @return The content of the range, shorter than length at the end of the file.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    String read(Node node, long offset, int length) throws IOException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid range " + offset + ":" + length + ".");
+        }
+        return readRange(node, offset, (int) Math.min(length, Math.max(0, node.getSize() - offset)));
+    }
+    
+    /**
+     * Append a content at the end of a file.
+     *
+     * @param node The file.
+     * @param data The content to append.
+     * @throws java.io.IOException If there isn't enough space.
+     */
+    void append(Node node, String data) throws IOException {
+        checkWritable(node);
+        writeRange(node, node.getSize(), data);
+    }
+    
+    /**
+     * Write a content at a position of a file.
+     *
+     * @param node The file.
+     * @param offset The position of the first character.
+     * @param data The content to write.
+     * @throws java.io.IOException If there isn't enough space.
+     */
+    void write(Node node, long offset, String data) throws IOException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset " + offset + ".");
+        }
+        checkWritable(node);
+        writeRange(node, offset, data);
+    }
+    
+    /**
+     * Change the size of a file.
+     *
+     * @param node The file.
+     * @param length The new size.
+     * @throws java.io.IOException If there isn't enough space.
+     */
+    void truncate(Node node, long length) throws IOException {
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid length " + length + ".");
+        }
+        checkWritable(node);
+        
+        long size = node.getSize();
+        if (length > size) {
+            writeRange(node, size, StringUtils.repeat('\0', (int) (length - size)));
+        }
+        else if (length < size) {
+            truncateContent(node, length);
+        }
+    }
+    
+    /**
+     * Remove a handle from the open-file table.
+     *
+     * @param handle The handle.
+     */
+    void close(FileHandle handle) {
+        openFiles.remove(handle.getDescriptor());
+    }
+    
+    /**
+     * Search a file, creating it empty if it doesn't exist.
+     *
+     * @param path The path of the file.
+     * @return The file.
+     * @throws java.io.IOException If the path is a directory or the file can't be created.
+     */
+    private Node searchOrCreateFile(String path) throws IOException {
+        Node node = searchNode(path);
+        
+        if (node == null) {
+            try {
+                createFile(path, "");
+            }
+            catch (IOException ex) {
+                throw ex;
+            }
+            catch (Exception ex) {
+                throw new IOException(ex.getMessage(), ex);
+            }
+            node = searchNode(path);
+        }
+        if (node.isDirectory()) {
+            throw new IOException("Cannot write a directory.");
+        }
+        checkWritable(node);
+        
+        return node;
+    }
+    
+    /**
+     * Make a file share the content of other file. The sectors are shared with
+     * reference counts and are copied only when one of the files changes them,
+     * so the copy only costs metadata. Packed tails and inline or buffered
+     * contents are small and are copied.
+     *
+     * @param source The file to copy.
+     * @param target The file that receives the content.
+     * @throws java.io.IOException If there isn't enough space for the tail.
+     */
+    private void shareContent(Node source, Node target) throws IOException {
+        if (source == target) {
+            return;
+        }
+        if (buffers.containsKey(source) || source.getInlineContent() != null) {
+            rewriteContent(target, readContent(source));
+            return;
+        }
+        
+        int pool = source.getPool();
+        int size = pools[pool].getSectorSize();
+        IntList sectors = source.getSectors();
+        String tail = null;
+        
+        if (source.getTailSector() != -1) {
+            int offset = source.getTailOffset();
+            tail = readRawSector(source.getTailSector()).substring(offset, offset + source.getTailLength());
+            if (findTailSector(pool, tail.length()) == -1 && pools[pool].getAvailableSectors() - pendingSectors(target, pool) < 1) {
+                throw new IOException("Insufficient disk space.");
+            }
+        }
+        
+        // Reserved sectors after the content are not shared.
+        sectors = sectors.subList(0, Math.min(sectors.size(), requiredSectors(source.getStoredSize(), size)));
+        
+        Batch batch = new Batch();
+        unbuffer(target);
+        releaseTail(target, batch);
+        batch.release(target.getSectors());
+        for (int i = 0; i < sectors.size(); i++) {
+            if (sectors.get(i) != -1) {
+                pools[pool].retain(sectors.get(i));
+            }
+        }
+        
+        target.setSectors(sectors);
+        target.setPool(pool);
+        target.setReservedSectors(0);
+        target.setInlineContent(null);
+        target.setSize(source.getSize());
+        target.setChunks(source.isCompressed() ? new IntList(source.getChunks()) : null, source.getStoredSize());
+        if (tail != null) {
+            packTail(target, tail, batch);
+        }
+        batch.commit();
+        target.setLastModificationTime(System.currentTimeMillis());
+    }
+    
+    /**
+     * Search a file that must exist.
+     *
+     * @param path The path of the file.
+     * @return The file.
+     * @throws java.io.IOException If the file doesn't exist or is a directory.
+     */
+    private Node searchFile(String path) throws IOException {
+        Node node = searchNode(path);
+        
+        if (node == null) {
+            throw new FileNotFoundException("File \"" + path + "\" not found.");
+        }
+        if (node.isDirectory()) {
+            throw new IOException("The path is a directory.");
+        }
+        
+        return node;
+    }
+    
+    /**
+     * Delete a tree in the file system from memory and disk.
+     * The sectors of all the files under the tree are released and wiped in a single batch.
+     * 
+     * @param tree The tree to delete.
+     * @throws java.io.IOException If an I/O error occurs reading a tail sector.
+     */
+    private void deleteTree(Tree<Node> tree) throws IOException {
+        if (!tree.isRoot()) {
+            Batch batch = new Batch();
+            Set<Node> released = Collections.newSetFromMap(new IdentityHashMap<>());
+            releaseTree(tree, batch, released);
+            forget(released);
+            batch.commit();
+            tree.parent().remove(tree.getData());
+        }
+    }
+    
+    /**
+     * Get the absolute path of a tree. The paths of the ancestors are cached too.
+     *
+     * @param tree The tree.
+     * @return The path.
+     */
+    private String getAbsolutePath(Tree<Node> tree) {
+        if (tree.isRoot()) {
+            return "/";
+        }
+        
+        String absolute = absolutePaths.get(tree);
+        if (absolute == null) {
+            Tree<Node> parent = tree.parent();
+            absolute = (parent.isRoot() ? "" : getAbsolutePath(parent)) + "/" + tree.getData().getName();
+            absolutePaths.put(tree, absolute);
+        }
+        return absolute;
+    }
+    
+    /**
+     * Remove from the path caches a tree and its descendants, before it is moved, renamed or deleted.
+     *
+     * @param tree The tree.
+     */
+    private void invalidatePaths(Tree<Node> tree) {
+        String path = getAbsolutePath(tree);
+        String prefix = path + "/";
+        
+        resolvedPaths.keySet().removeIf((key) -> key.equals(path) || key.startsWith(prefix));
+        absolutePaths.values().removeIf((value) -> value.equals(path) || value.startsWith(prefix));
+    }
+    
+    /**
+     * Create a cache that keeps the most recently used entries.
+     *
+     * @param <K> The type of the keys.
+     * @param <V> The type of the values.
+     * @return The cache.
+     */
+    private static <K, V> Map<K, V> createPathCache() {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > PATH_CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Check that a node can be changed.
+     *
+     * @param node The node.
+     * @throws java.nio.file.AccessDeniedException If the node or the disk are read-only.
+     */
+    private void checkWritable(Node node) throws AccessDeniedException {
+        if (frozen) {
+            throw new AccessDeniedException("The disk is the read-only base of an overlay.");
+        }
+        if (node.isReadOnly()) {
+            throw new AccessDeniedException("\"" + node.getName() + "\" is read-only.");
+        }
+    }
+    
+    /**
+     * Check if a tree is inside other tree.
+     *
+     * @param tree The tree.
+     * @param ancestor The possible ancestor.
+     * @return true if the tree is the ancestor or one of its descendants.
+     */
+    private boolean isInside(Tree<Node> tree, Tree<Node> ancestor) {
+        for (Tree<Node> actual = tree; actual != null; actual = actual.parent()) {
+            if (actual == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Find a snapshot by name.
+     *
+     * @param name The name.
+     * @return The tree of the snapshot, null if it doesn't exist.
+     */
+    private Tree<Node> findSnapshot(String name) {
+        return snapshots.getChild(name);
+    }
+    
+    /**
+     * Add a child to a tree that always allows children.
+     *
+     * @param parent The parent tree.
+     * @param child The child tree.
+     */
+    private void addTree(Tree<Node> parent, Tree<Node> child) {
+        try {
+            parent.add(child);
+        }
+        catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    /**
+     * Copy a tree of the file system sharing the sectors of the files.
+     *
+     * @param tree The tree to copy.
+     * @param live If the copy is part of the live file system, otherwise it is a read-only snapshot.
+     * @return The copy.
+     */
+    private Tree<Node> copyTree(Tree<Node> tree, boolean live) {
+        Tree<Node> copy = new Tree<>(copyNode(tree.getData(), live));
+        for (Tree<Node> child : tree.children()) {
+            addTree(copy, copyTree(child, live));
+        }
+        return copy;
+    }
+    
+    /**
+     * Copy a node of the file system sharing its sectors.
+     * The live files hold a single reference to each tail sector while any of
+     * their tails is in it, the snapshots hold a reference for each tail.
+     *
+     * @param node The node to copy.
+     * @param live If the copy is part of the live file system.
+     * @return The copy.
+     */
+    private Node copyNode(Node node, boolean live) {
+        Node copy = cloneNode(node, nextInode++);
+        
+        if (!node.isDirectory()) {
+            BlockPool pool = pools[node.getPool()];
+            // Reserved sectors after the content are not shared.
+            IntList sectors = copy.getSectors();
+            while (sectors.size() > requiredSectors(node.getStoredSize(), pool.getSectorSize())) {
+                sectors.removeLast();
+            }
+            for (int i = 0; i < sectors.size(); i++) {
+                if (sectors.get(i) != -1) {
+                    pool.retain(sectors.get(i));
+                }
+            }
+            
+            int tail = node.getTailSector();
+            if (tail != -1) {
+                if (!live || tailCount[tail]++ == 0) {
+                    pool.retain(tail);
+                }
+                if (live) {
+                    setTailUsed(tail, Math.max(tailUsed[tail], node.getTailOffset() + node.getTailLength()));
+                }
+            }
+            copy.setReservedSectors(0);
+            copy.changed();
+        }
+        
+        copy.setReadOnly(!live);
+        return copy;
+    }
+    
+    /**
+     * Copy a tree keeping the sectors of the files as they are, for a disk
+     * that copies the references to the sectors too.
+     *
+     * @param tree The tree to copy.
+     * @return The copy.
+     */
+    private Tree<Node> cloneTree(Tree<Node> tree) {
+        Tree<Node> copy = new Tree<>(cloneNode(tree.getData(), tree.getData().getInode()));
+        for (Tree<Node> child : tree.children()) {
+            addTree(copy, cloneTree(child));
+        }
+        return copy;
+    }
+    
+    /**
+     * Copy all the metadata of a node.
+     *
+     * @param node The node to copy.
+     * @param inode The inode number of the copy.
+     * @return The copy.
+     */
+    private Node cloneNode(Node node, long inode) {
+        Node copy = node.isDirectory() ? new Directory(inode, node.getName()) : new File(inode, node.getName());
+        
+        if (!node.isDirectory()) {
+            copy.setSectors(new IntList(node.getSectors()));
+            copy.setPool(node.getPool());
+            copy.setSize(node.getSize());
+            copy.setReservedSectors(node.getReservedSectors());
+            copy.setChunks(node.isCompressed() ? new IntList(node.getChunks()) : null, node.getStoredSize());
+            copy.setInlineContent(node.getInlineContent());
+            copy.setTail(node.getTailSector(), node.getTailOffset(), node.getTailLength());
+        }
+        
+        copy.setReadOnly(node.isReadOnly());
+        copy.setCreationTime(node.getCreationTime());
+        copy.setLastModificationTime(node.getLastModificationTime());
+        return copy;
+    }
+    
+    /**
+     * Release the content of all the files of a live tree. The tree is walked
+     * once without recursion, so deep trees don't exhaust the stack.
+     *
+     * @param tree The tree.
+     * @param batch The batch.
+     * @param released The set where the released files are added, to be forgotten by the caller.
+     * @throws java.io.IOException If an I/O error occurs reading a tail sector.
+     */
+    private void releaseTree(Tree<Node> tree, Batch batch, Set<Node> released) throws IOException {
+        Deque<Tree<Node>> pending = new ArrayDeque<>();
+        pending.push(tree);
+        
+        while (!pending.isEmpty()) {
+            Tree<Node> current = pending.pop();
+            Node node = current.getData();
+            
+            if (node.isDirectory()) {
+                for (Tree<Node> child : current.children()) {
+                    pending.push(child);
+                }
+            }
+            else {
+                releaseTail(node, batch);
+                batch.release(node.getSectors());
+                released.add(node);
+            }
+        }
+    }
+    
+    /**
+     * Drop the buffered contents and close the handles of released files,
+     * visiting the buffers and the open-file table once.
+     *
+     * @param released The released files.
+     */
+    private void forget(Set<Node> released) {
+        if (released.isEmpty()) {
+            return;
+        }
+        for (Node node : released) {
+            String data = buffers.remove(node);
+            if (data != null) {
+                bufferedChars -= data.length();
+                withdraw(node);
+            }
+        }
+        bufferedNodes.removeIf(released::contains);
+        openFiles.values().removeIf((handle) -> {
+            if (released.contains(handle.getNode())) {
+                handle.invalidate();
+                return true;
+            }
+            return false;
+        });
+    }
+    
+    /**
+     * Release the references of a snapshot tree to its sectors.
+     *
+     * @param tree The tree.
+     * @param batch The batch.
+     * @param released The set where the released files are added, to be forgotten by the caller.
+     */
+    private void releaseSnapshot(Tree<Node> tree, Batch batch, Set<Node> released) {
+        Node node = tree.getData();
+        
+        for (Tree<Node> child : tree.children()) {
+            releaseSnapshot(child, batch, released);
+        }
+        if (!node.isDirectory()) {
+            released.add(node);
+            batch.release(node.getSectors());
+            if (node.getTailSector() != -1) {
+                batch.release(node.getTailSector());
+            }
+        }
+    }
+    
+    /**
+     * Calculate the amount of sectors required to store a content in disk.
+     *
+     * @param length The length of the content.
+     * @param size The size of a single sector.
+     * @return The required sectors.
+     */
+    private int requiredSectors(long length, int size) {
+        return (int) ((length + size - 1) / size);
+    }
+
+    /**
+     * Calculate the amount of available sectors of a pool that are promised to buffered files.
+     *
+     * @param exclude A node whose buffer is not counted, or null.
+     * @param pool The pool.
+     * @return The amount of sectors.
+     */
+    private int pendingSectors(Node exclude, int pool) {
+        int count = promisedSectors[pool];
+        int[] promise = exclude != null ? promises.get(exclude) : null;
+        if (promise != null && promise[0] == pool) {
+            count -= promise[1];
+        }
+        return count;
+    }
+    
+    /**
+     * Promise to a buffered file the sectors its content still needs,
+     * replacing its previous promise.
+     *
+     * @param node The file.
+     * @param content The buffered content.
+     */
+    private void promise(Node node, String content) {
+        withdraw(node);
+        int pool = node.getReservedSectors() > 0 ? node.getPool() : choosePool(content.length());
+        int count = Math.max(0, requiredSectors(content.length(), pools[pool].getSectorSize()) - countSectors(node.getSectors()));
+        promises.put(node, new int[] {pool, count});
+        promisedSectors[pool] += count;
+    }
+    
+    /**
+     * Withdraw the sectors promised to a file.
+     *
+     * @param node The file.
+     */
+    private void withdraw(Node node) {
+        int[] promise = promises.remove(node);
+        if (promise != null) {
+            promisedSectors[promise[0]] -= promise[1];
+        }
+    }
+    
+    /**
+     * Choose the pool that best fits a content: the pool with the biggest
+     * sectors that are not bigger than the content, so big files use few
+     * sectors and small files don't waste space. Contents smaller than every
+     * sector use the pool with the smallest sectors.
+     *
+     * @param length The length of the content.
+     * @return The pool.
+     */
+    private int choosePool(long length) {
+        int best = -1;
+        int smallest = 0;
+        
+        for (int i = 0; i < pools.length; i++) {
+            int size = pools[i].getSectorSize();
+            if (pools[i].getSectorAmount() == 0) {
+                continue;
+            }
+            if (size <= length && (best == -1 || size > pools[best].getSectorSize())) {
+                best = i;
+            }
+            if (pools[smallest].getSectorAmount() == 0 || size < pools[smallest].getSectorSize()) {
+                smallest = i;
+            }
+        }
+        
+        return best != -1 ? best : smallest;
+    }
+    
+    /**
+     * Select the pool where the content of a file will be stored.
+     * Preallocated files stay in their pool, the rest use the best fitting
+     * pool or any other pool with enough space.
+     *
+     * @param node The file.
+     * @param content The content.
+     * @return The pool, -1 if there isn't enough space.
+     */
+    private int selectPool(Node node, String content) {
+        int pool = node.getReservedSectors() > 0 ? node.getPool() : choosePool(content.length());
+        
+        if (missingSectors(node, content, pool) <= pools[pool].getAvailableSectors() - pendingSectors(node, pool)) {
+            return pool;
+        }
+        if (node.getReservedSectors() == 0) {
+            for (int i = 0; i < pools.length; i++) {
+                if (missingSectors(node, content, i) <= pools[i].getAvailableSectors() - pendingSectors(node, i)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Get the pool that holds a sector.
+     *
+     * @param sector The global index of the sector.
+     * @return The pool.
+     */
+    private BlockPool poolOf(int sector) {
+        for (BlockPool pool : pools) {
+            if (pool.contains(sector)) {
+                return pool;
+            }
+        }
+        throw new IndexOutOfBoundsException("Sector: " + sector + ", Amount: " + sectorAmount);
+    }
+    
+    /**
+     * Keep the content of a file in the write-back buffers.
+     *
+     * @param node The file.
+     * @param content The content.
+     * @throws java.io.IOException If there isn't enough space for the content.
+     */
+    private void bufferContent(Node node, String content) throws IOException {
+        if (selectPool(node, content) == -1) {
+            throw new IOException("Insufficient disk space.");
+        }
+        
+        node.setSize(content.length());
+        String previous = buffers.put(node, content);
+        if (previous == null) {
+            bufferedNodes.add(node);
+        }
+        else {
+            bufferedChars -= previous.length();
+        }
+        bufferedChars += content.length();
+        promise(node, content);
+        node.setLastModificationTime(System.currentTimeMillis());
+        
+        if (bufferedChars > BUFFER_LIMIT) {
+            flush();
+        }
+    }
+    
+    /**
+     * Remove a file from the write-back buffers.
+     *
+     * @param node The file.
+     */
+    private void unbuffer(Node node) {
+        String data = buffers.remove(node);
+        if (data != null) {
+            bufferedChars -= data.length();
+            withdraw(node);
+            bufferedNodes.removeIf((buffered) -> buffered == node);
+        }
+    }
+    
+    /**
+     * Write the content of a file reusing the sectors it already owns.
+     * Only the missing sectors are allocated, only the surplus sectors are freed
+     * and only the sectors whose content changes are written.
+     *
+     * @param node The file.
+     * @param content The content.
+     * @throws java.io.IOException If there isn't enough space for the content.
+     */
+    private void writeContent(Node node, String content) throws IOException {
+        Batch batch = new Batch();
+        unbuffer(node);
+        layoutContent(node, content, batch);
+        // Content and wipe of the released sectors are done in the same pass.
+        batch.commit();
+        node.setLastModificationTime(System.currentTimeMillis());
+    }
+    
+    /**
+     * Replace the whole content of a file, buffering it if the allocation is delayed.
+     *
+     * @param node The file.
+     * @param content The content.
+     * @throws java.io.IOException If there isn't enough space for the content.
+     */
+    void rewriteContent(Node node, String content) throws IOException {
+        checkWritable(node);
+        if (delayedAllocation) {
+            bufferContent(node, content);
+        }
+        else {
+            writeContent(node, content);
+        }
+    }
+    
+    /**
+     * Check if the content of a file is kept in memory or the file has no
+     * stored content, so partial writes are done rewriting the whole content.
+     *
+     * @param node The file.
+     * @return true if the content is not stored in sectors.
+     */
+    private boolean isUnstored(Node node) {
+        return buffers.containsKey(node) || node.getInlineContent() != null
+                || (countSectors(node.getSectors()) == 0 && node.getTailSector() == -1);
+    }
+    
+    /**
+     * Write a content at a position of a file rewriting only the sectors that cover it.
+     * A packed tail reached by the range is moved to a sector of the file.
+     *
+     * @param node The file.
+     * @param offset The position of the first character.
+     * @param data The content.
+     * @throws java.io.IOException If there isn't enough space for the content.
+     */
+    private void writeRange(Node node, long offset, String data) throws IOException {
+        long size = node.getSize();
+        
+        if (offset > size) {
+            data = StringUtils.repeat('\0', (int) (offset - size)) + data;
+            offset = size;
+        }
+        if (data.isEmpty()) {
+            return;
+        }
+        
+        long end = offset + data.length();
+        
+        if (isUnstored(node)) {
+            String content = readContent(node);
+            rewriteContent(node, content.substring(0, (int) offset) + data + StringUtils.substring(content, (int) end, content.length()));
+            return;
+        }
+        
+        if (node.isCompressed()) {
+            writeChunks(node, offset, data);
+            return;
+        }
+        
+        int pool = node.getPool();
+        int sectorSize = pools[pool].getSectorSize();
+        int first = (int) (offset / sectorSize);
+        long start = (long) first * sectorSize;
+        long stop = Math.min(((end - 1) / sectorSize + 1) * sectorSize, Math.max(size, end));
+        
+        // The characters of the first and last sectors outside the range are kept.
+        String region = readRange(node, start, (int) (offset - start)) + data;
+        if (stop > end) {
+            region += readRange(node, end, (int) (stop - end));
+        }
+        
+        if (missingSectors(node, pool, first, region) > pools[pool].getAvailableSectors() - pendingSectors(node, pool)) {
+            throw new IOException("Insufficient disk space.");
+        }
+        
+        Batch batch = new Batch();
+        if (node.getTailSector() != -1 && first + requiredSectors(region.length(), sectorSize) > node.getSectors().size()) {
+            releaseTail(node, batch);
+        }
+        writeSectors(node, first, region, batch);
+        node.setSize(Math.max(size, end));
+        batch.commit();
+        node.setLastModificationTime(System.currentTimeMillis());
+    }
+    
+    /**
+     * Write a content at a position of a compressed file. Only the chunks
+     * reached by the range are decompressed and compressed again.
+     *
+     * @param node The file.
+     * @param offset The position of the first character, not after the end of the file.
+     * @param data The content.
+     * @throws java.io.IOException If there isn't enough space for the content.
+     */
+    private void writeChunks(Node node, long offset, String data) throws IOException {
+        long end = offset + data.length();
+        int first = (int) (offset / COMPRESSION_CHUNK);
+        int last = Math.min(node.getChunks().size(), (int) ((end - 1) / COMPRESSION_CHUNK) + 1);
+        StringBuilder content = new StringBuilder();
+        
+        for (int i = first; i < last; i++) {
+            content.append(inflateChunk(node, i));
+        }
+        
+        int start = (int) (offset - (long) first * COMPRESSION_CHUNK);
+        content.replace(start, Math.min(content.length(), start + data.length()), data);
+        replaceChunks(node, first, last, content.toString(), Math.max(node.getSize(), end));
+    }
+    
+    /**
+     * Replace a range of chunks of a compressed file with a content compressed again.
+     * The new chunks are written in place when they fit in the space of the old
+     * ones, otherwise the stored chunks after them are moved without being
+     * decompressed.
+     *
+     * @param node The file.
+     * @param first The index of the first chunk replaced.
+     * @param last The index of the first chunk kept after the range, the amount of chunks to replace up to the end.
+     * @param content The content of the new chunks, starting at the first chunk.
+     * @param size The new size of the file.
+     * @throws java.io.IOException If there isn't enough space for the content.
+     */
+    private void replaceChunks(Node node, int first, int last, String content, long size) throws IOException {
+        IntList chunks = node.getChunks();
+        IntList sectors = node.getSectors();
+        int pool = node.getPool();
+        int sectorSize = pools[pool].getSectorSize();
+        int stored = (int) node.getStoredSize();
+        int from = first < chunks.size() ? chunks.get(first) : stored;
+        int to = last < chunks.size() ? chunks.get(last) : stored;
+        
+        IntList index = new IntList();
+        String packed = compress(content, index);
+        // The bytes after the end of a chunk are ignored by the inflater, so a smaller chunk leaves a gap.
+        int shift = last < chunks.size() && packed.length() > to - from ? from + packed.length() - to : 0;
+        String moved = shift > 0 ? readStored(node, to, stored) : "";
+        int length = last < chunks.size() ? stored + shift : from + packed.length();
+        
+        IntList positions = new IntList(chunks.subList(0, first));
+        for (int i = 0; i < index.size(); i++) {
+            positions.add(from + index.get(i));
+        }
+        for (int i = last; i < chunks.size(); i++) {
+            positions.add(chunks.get(i) + shift);
+        }
+        
+        // The characters of the first and last sectors outside the region are kept.
+        int sector = from / sectorSize;
+        int regionEnd = from + packed.length() + moved.length();
+        String region = readStored(node, sector * sectorSize, from) + packed + moved;
+        if (regionEnd < length) {
+            region += readStored(node, regionEnd, Math.min(length, requiredSectors(regionEnd, sectorSize) * sectorSize));
+        }
+        
+        if (missingSectors(node, pool, sector, region) > pools[pool].getAvailableSectors() - pendingSectors(node, pool)) {
+            throw new IOException("Insufficient disk space.");
+        }
+        
+        Batch batch = new Batch();
+        writeSectors(node, sector, region, batch);
+        while (sectors.size() > requiredSectors(length, sectorSize)) {
+            int surplus = sectors.removeLast();
+            if (surplus != -1) {
+                batch.release(surplus);
+            }
+        }
+        node.setChunks(positions, length);
+        node.setSize(size);
+        batch.commit();
+        node.setLastModificationTime(System.currentTimeMillis());
+    }
+    
+    /**
+     * Shrink the content of a file releasing the surplus sectors.
+     *
+     * @param node The file.
+     * @param length The new size, smaller than the current one.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    private void truncateContent(Node node, long length) throws IOException {
+        if (isUnstored(node) || (node.isCompressed() && length == 0)) {
+            rewriteContent(node, readContent(node).substring(0, (int) length));
+            return;
+        }
+        
+        if (node.isCompressed()) {
+            // Only the chunk where the content ends is compressed again.
+            int first = (int) ((length - 1) / COMPRESSION_CHUNK);
+            String chunk = inflateChunk(node, first).substring(0, (int) (length - (long) first * COMPRESSION_CHUNK));
+            replaceChunks(node, first, node.getChunks().size(), chunk, length);
+            return;
+        }
+        
+        IntList sectors = node.getSectors();
+        int sectorSize = pools[node.getPool()].getSectorSize();
+        int stored = Math.min(sectors.size(), requiredSectors(node.getSize(), sectorSize));
+        int keep = requiredSectors(length, sectorSize);
+        Batch batch = new Batch();
+        
+        if (node.getTailSector() != -1) {
+            long tailStart = (long) sectors.size() * sectorSize;
+            if (length > tailStart) {
+                shrinkTail(node, (int) (length - tailStart), batch);
+                node.setSize(length);
+                batch.commit();
+                node.setLastModificationTime(System.currentTimeMillis());
+                return;
+            }
+            releaseTail(node, batch);
+        }
+        
+        String last = null;
+        if (length % sectorSize != 0 && keep <= sectors.size()) {
+            long start = (long) (keep - 1) * sectorSize;
+            last = readRange(node, start, (int) (length - start));
+        }
+        
+        // Surplus sectors are released, reserved ones are only wiped.
+        while (sectors.size() > Math.max(keep, node.getReservedSectors())) {
+            int sector = sectors.removeLast();
+            if (sector != -1) {
+                batch.release(sector);
+            }
+        }
+        wipeSectors(sectors, Math.min(keep, sectors.size()), Math.min(stored, sectors.size()), sectorSize, batch);
+        if (last != null) {
+            writeSectors(node, keep - 1, last, batch);
+        }
+        
+        node.setSize(length);
+        batch.commit();
+        node.setLastModificationTime(System.currentTimeMillis());
+    }
+    
+    /**
+     * Calculate the amount of sectors of a pool that a file needs to store a
+     * region of its content, besides the sectors it already owns.
+     *
+     * @param node The file.
+     * @param pool The pool.
+     * @param first The index of the first sector of the region.
+     * @param region The content of the region.
+     * @return The amount of sectors.
+     */
+    private int missingSectors(Node node, int pool, int first, String region) {
+        IntList sectors = node.getSectors();
+        int size = pools[pool].getSectorSize();
+        int count = requiredSectors(region.length(), size);
+        boolean sparse = isSparse(node);
+        boolean owned = pool == node.getPool();
+        int missing = 0;
+        
+        for (int i = 0; i < count; i++) {
+            int index = first + i;
+            if ((!sparse || !isHole(region, i, size)) && (!owned || index >= sectors.size() || sectors.get(index) == -1
+                    || pools[pool].isShared(sectors.get(index)))) {
+                missing++;
+            }
+        }
+        return missing;
+    }
+    
+    /**
+     * Write a region of the content of a file to its sectors, starting at a sector index.
+     * Missing sectors are allocated and the sectors of the holes are released.
+     * The caller must check that there is enough space.
+     *
+     * @param node The file.
+     * @param first The index of the first sector of the region.
+     * @param region The content of the region.
+     * @param batch The batch.
+     * @throws java.io.IOException If an I/O error occurs reading a stored sector.
+     */
+    private void writeSectors(Node node, int first, String region, Batch batch) throws IOException {
+        IntList sectors = node.getSectors();
+        BlockPool pool = pools[node.getPool()];
+        int size = pool.getSectorSize();
+        int count = requiredSectors(region.length(), size);
+        boolean sparse = isSparse(node);
+        IntList written = new IntList(count);
+        
+        for (int i = 0; i < count; i++) {
+            int index = first + i;
+            while (sectors.size() <= index) {
+                sectors.add(-1);
+            }
+            int sector = sectors.get(index);
+            if (sparse && isHole(region, i, size)) {
+                if (sector != -1) {
+                    batch.release(sector);
+                    sectors.set(index, -1);
+                }
+            }
+            else if (sector == -1) {
+                IntList allocated = new IntList(1);
+                pool.allocate(allocated, lastSector(sectors), 1);
+                sectors.set(index, allocated.get(0));
+            }
+            written.add(sectors.get(index));
+        }
+        unshareSectors(sectors, first, written, batch);
+        deduplicate(node, first, written, region, batch);
+        batch.write(written, region, size);
+    }
+    
+    /**
+     * Decide where the content of a file is stored and add the required writes to a batch.
+     * Small files are stored inline, the tail of the rest is packed if tail packing
+     * is enabled and preallocated files always use their reserved sectors.
+     *
+     * @param node The file.
+     * @param content The content.
+     * @param batch The batch.
+     * @throws java.io.IOException If there isn't enough space for the content.
+     */
+    private void layoutContent(Node node, String content, Batch batch) throws IOException {
+        IntList chunks = node.getChunks();
+        long stored = node.getStoredSize();
+        String data = content;
+        
+        if (isCompressible(node, content.length())) {
+            IntList index = new IntList();
+            data = compress(content, index);
+            node.setChunks(index, data.length());
+            if (data.length() >= content.length()) {
+                // Content that doesn't shrink is stored as it is.
+                data = content;
+                node.setChunks(null, 0);
+            }
+        }
+        else {
+            node.setChunks(null, 0);
+        }
+        
+        int pool = selectPool(node, data);
+        
+        if (pool == -1) {
+            node.setChunks(chunks, stored);
+            throw new IOException("Insufficient disk space.");
+        }
+        
+        int length = data.length();
+        int size = pools[pool].getSectorSize();
+        boolean sparse = isSparse(node);
+        boolean inline = isInline(node, content.length());
+        int full = fullSectors(node, length, size);
+        int tail = tailLength(node, data, size);
+        
+        IntList previous = pool == node.getPool() ? new IntList(node.getSectors()) : new IntList();
+        
+        releaseTail(node, batch);
+        if (pool != node.getPool()) {
+            // The file moves to a pool with other sector size.
+            batch.release(node.getSectors());
+            node.getSectors().clear();
+            node.setPool(pool);
+        }
+        node.setInlineContent(inline ? content : null);
+        node.setSize(content.length());
+        mapSectors(node, data, full, sparse, batch);
+        
+        IntList changed = changedSectors(previous, node.getSectors(), data, size);
+        unshareSectors(node.getSectors(), 0, changed, batch);
+        deduplicate(node, 0, changed, data, batch);
+        batch.write(changed, StringUtils.substring(data, 0, full * size), size);
+        
+        if (tail > 0) {
+            packTail(node, data.substring(length - tail), batch);
+        }
+        node.changed();
+    }
+    
+    /**
+     * Find the sectors of a file whose content changes. The sectors kept in the same
+     * position are compared with their new chunk and left out if they are equal.
+     *
+     * @param previous The sectors of the file before the change.
+     * @param sectors The sectors of the file after the change.
+     * @param content The new content.
+     * @param size The size of a single sector.
+     * @return A copy of the sectors with holes in place of the unchanged ones.
+     * @throws java.io.IOException If an I/O error occurs reading the sectors.
+     */
+    private IntList changedSectors(IntList previous, IntList sectors, String content, int size) throws IOException {
+        IntList changed = new IntList(sectors);
+        int count = Math.min(previous.size(), sectors.size());
+        FileChannel channel = null;
+        char[] buffer = new char[size];
+        int sector;
+        int read;
+        
+        try {
+            for (int i = 0; i < count; i++) {
+                sector = sectors.get(i);
+                if (sector == -1 || sector != previous.get(i)) {
+                    continue;
+                }
+                if (channel == null) {
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                }
+                read = loadSector(channel, sector, buffer, size);
+                if (isSameChunk(buffer, read, content, i * size)) {
+                    changed.set(i, -1);
+                }
+            }
+        }
+        finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        
+        return changed;
+    }
+    
+    /**
+     * Compare the raw content of a sector with a chunk of a content.
+     *
+     * @param buffer The raw content of the sector.
+     * @param length The length of the sector.
+     * @param content The content.
+     * @param start The start of the chunk.
+     * @return true if the sector holds the chunk followed by empty characters.
+     */
+    private boolean isSameChunk(char[] buffer, int length, String content, int start) {
+        int end = Math.min(content.length(), start + length);
+        for (int i = 0; i < length; i++) {
+            char expected = start + i < end ? content.charAt(start + i) : ZERO;
+            if (buffer[i] != expected) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Calculate the amount of sectors of a pool that a file needs to store
+     * a content, besides the sectors it keeps in the same position.
+     * The sectors the file releases are freed when the batch is committed,
+     * so they are not available for the content.
+     *
+     * @param node The file.
+     * @param content The content.
+     * @param pool The pool.
+     * @return The amount of sectors.
+     */
+    private int missingSectors(Node node, String content, int pool) {
+        IntList sectors = node.getSectors();
+        int size = pools[pool].getSectorSize();
+        int full = fullSectors(node, content.length(), size);
+        int tail = tailLength(node, content, size);
+        boolean sparse = isSparse(node);
+        boolean owned = pool == node.getPool();
+        int required = 0;
+        
+        for (int i = 0; i < full; i++) {
+            if (sparse && isHole(content, i, size)) {
+                continue;
+            }
+            // Shared sectors are not reused, the changed ones are copied to new sectors.
+            if (!owned || i >= sectors.size() || sectors.get(i) == -1 || pools[pool].isShared(sectors.get(i))) {
+                required++;
+            }
+        }
+        if (tail > 0 && findTailSector(pool, tail) == -1) {
+            required++;
+        }
+        return required;
+    }
+    
+    /**
+     * Check if the holes of a file don't use sectors. The reserved sectors and
+     * the compressed content are always stored.
+     *
+     * @param node The file.
+     * @return true if the holes are not stored.
+     */
+    private boolean isSparse(Node node) {
+        return node.getReservedSectors() == 0 && !node.isCompressed();
+    }
+    
+    /**
+     * Check if the content of a file is compressed when it is written.
+     *
+     * @param node The file.
+     * @param length The length of the content.
+     * @return true if the content is compressed.
+     */
+    private boolean isCompressible(Node node, int length) {
+        return compression && length > 0 && node.getReservedSectors() == 0 && !isInline(node, length);
+    }
+    
+    /**
+     * Compress a content in chunks of COMPRESSION_CHUNK characters.
+     * Each chunk is deflated independently and its bytes are packed two per character.
+     *
+     * @param content The content.
+     * @param chunks Where the position of each chunk in the compressed content is added.
+     * @return The compressed content.
+     */
+    private String compress(String content, IntList chunks) {
+        Deflater deflater = new Deflater();
+        StringBuilder stored = new StringBuilder();
+        byte[] buffer = new byte[COMPRESSION_CHUNK * CHAR_BYTES];
+        
+        try {
+            for (int start = 0; start < content.length(); start += COMPRESSION_CHUNK) {
+                String chunk = content.substring(start, Math.min(content.length(), start + COMPRESSION_CHUNK));
+                chunks.add(stored.length());
+                deflater.reset();
+                deflater.setInput(chunk.getBytes(StandardCharsets.UTF_16BE));
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    // An odd byte is padded, the inflater ignores the bytes after the end of the data.
+                    for (int i = 0; i < count; i += 2) {
+                        int low = i + 1 < count ? buffer[i + 1] & 0xFF : 0;
+                        stored.append((char) ((buffer[i] & 0xFF) << 8 | low));
+                    }
+                }
+            }
+        }
+        finally {
+            deflater.end();
+        }
+        return stored.toString();
+    }
+    
+    /**
+     * Read and decompress a chunk of a compressed file.
+     *
+     * @param node The file.
+     * @param index The index of the chunk.
+     * @return The content of the chunk.
+     * @throws java.io.IOException If an I/O error occurs or the chunk is corrupt.
+     */
+    private String inflateChunk(Node node, int index) throws IOException {
+        IntList chunks = node.getChunks();
+        int from = chunks.get(index);
+        int to = index + 1 < chunks.size() ? chunks.get(index + 1) : (int) node.getStoredSize();
+        String stored = readStored(node, from, to);
+        byte[] input = new byte[stored.length() * CHAR_BYTES];
+        long start = (long) index * COMPRESSION_CHUNK;
+        byte[] output = new byte[(int) Math.min(COMPRESSION_CHUNK, node.getSize() - start) * CHAR_BYTES];
+        
+        for (int i = 0; i < stored.length(); i++) {
+            input[i * 2] = (byte) (stored.charAt(i) >> 8);
+            input[i * 2 + 1] = (byte) stored.charAt(i);
+        }
+        
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            int length = 0;
+            while (length < output.length && !inflater.finished()) {
+                int count = inflater.inflate(output, length, output.length - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += count;
+            }
+            if (length != output.length) {
+                throw new IOException("Corrupt compressed chunk " + index + ".");
+            }
+        }
+        catch (DataFormatException ex) {
+            throw new IOException("Corrupt compressed chunk " + index + ".", ex);
+        }
+        finally {
+            inflater.end();
         }
+        return new String(output, StandardCharsets.UTF_16BE);
+    }
+    
+    /**
+     * Read a range of the stored content of a file including the empty characters.
+     *
+     * @param node The file.
+     * @param from The first position, inclusive.
+     * @param to The last position, exclusive.
+     * @return The stored content of the range.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    private String readStored(Node node, int from, int to) throws IOException {
+        IntList sectors = node.getSectors();
+        int size = pools[node.getPool()].getSectorSize();
+        int first = from / size;
+        int last = (to - 1) / size;
+        StringBuilder content = new StringBuilder((last - first + 1) * size);
         
-        if (!tree.getData().isDirectory()) {
-            throw new NotDirectoryException("The path is not a directory.");
+        if (from >= to) {
+            return "";
         }
         
-        List<Node> list = new ArrayList();
-        
-        for (Tree<Node> child : tree.children()) {
-            list.add(child.getData());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            char[] buffer = new char[size];
+            for (int i = first; i <= last; i++) {
+                int sector = sectors.get(i);
+                content.append(buffer, 0, loadSector(channel, sector, buffer, size));
+            }
         }
-
-        return list;
+        return content.substring(from - first * size, to - first * size);
     }
-
+    
     /**
-     * Get the files that satisfies certain regular expression in a directory.
+     * Check if the content of a file is stored inline.
      *
-     * @param directory The path of the directory.
-     * @param regex The regular expression.
-     * @return The list of children of the directory.
-     * @throws java.io.IOException if an I/O error occurs reading the directory.
+     * @param node The file.
+     * @param length The length of the content.
+     * @return true if the content is stored in the node.
      */
-    public List<String> getFiles(String directory, String regex) throws IOException {
-        Tree<Node> tree = searchTree(directory);
+    private boolean isInline(Node node, int length) {
+        return node.getReservedSectors() == 0 && inlineThreshold > 0 && length <= inlineThreshold;
+    }
+    
+    /**
+     * Calculate the amount of whole sectors used by the content of a file, holes included.
+     *
+     * @param node The file.
+     * @param length The length of the content.
+     * @param size The size of a single sector.
+     * @return The amount of sectors.
+     */
+    private int fullSectors(Node node, int length, int size) {
+        if (node.isCompressed()) {
+            return requiredSectors(length, size);
+        }
+        if (isInline(node, length)) {
+            return 0;
+        }
+        if (node.getReservedSectors() == 0 && tailPacking) {
+            return length / size;
+        }
+        return Math.max(requiredSectors(length, size), node.getReservedSectors());
+    }
+    
+    /**
+     * Calculate the length of the tail of a file packed into a shared tail sector.
+     *
+     * @param node The file.
+     * @param content The content.
+     * @param size The size of a single sector.
+     * @return The tail length, zero if the tail is not packed.
+     */
+    private int tailLength(Node node, String content, int size) {
+        int length = content.length();
         
-        if (tree == null) {
-            throw new FileNotFoundException("Directory \"" + directory + "\" not found.");
+        if (isInline(node, length) || node.getReservedSectors() > 0 || !tailPacking || node.isCompressed()) {
+            return 0;
         }
         
-        if (!tree.getData().isDirectory()) {
-            throw new NotDirectoryException("The path is not a directory.");
+        int tail = length % size;
+        // A tail of zeros is a hole.
+        return isZero(content, length - tail, length) ? 0 : tail;
+    }
+    
+    /**
+     * Check if a chunk of a content is a hole, a range of zeros that doesn't need a sector.
+     *
+     * @param content The content.
+     * @param chunk The chunk index.
+     * @param size The size of a single sector.
+     * @return true if the chunk only has zeros.
+     */
+    private boolean isHole(String content, int chunk, int size) {
+        int start = chunk * size;
+        int end = Math.min(content.length(), start + size);
+        return start < end && isZero(content, start, end);
+    }
+    
+    /**
+     * Check if a range of a content only has zeros.
+     *
+     * @param content The content.
+     * @param start The start of the range, inclusive.
+     * @param end The end of the range, exclusive.
+     * @return true if the range only has zeros.
+     */
+    private boolean isZero(String content, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (content.charAt(i) != '\0') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Count the allocated sectors of a sector list, holes excluded.
+     *
+     * @param sectors The sectors.
+     * @return The amount of allocated sectors.
+     */
+    private int countSectors(IntList sectors) {
+        int count = 0;
+        for (int i = 0; i < sectors.size(); i++) {
+            if (sectors.get(i) != -1) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Replace the shared sectors of a list by new sectors, so they can be written
+     * without changing the other files. The caller must check that there is enough space.
+     *
+     * @param owned The sectors of the file.
+     * @param first The index in the sectors of the file of the first sector to write.
+     * @param written The sectors to write, holes are skipped.
+     * @param batch The batch.
+     */
+    private void unshareSectors(IntList owned, int first, IntList written, Batch batch) {
+        for (int i = 0; i < written.size(); i++) {
+            int sector = written.get(i);
+            if (sector == -1 || !poolOf(sector).isShared(sector)) {
+                continue;
+            }
+            
+            int index = first + i;
+            IntList allocated = new IntList(1);
+            poolOf(sector).allocate(allocated, lastSector(owned), 1);
+            batch.release(sector);
+            owned.set(index, allocated.get(0));
+            written.set(i, allocated.get(0));
         }
+    }
+    
+    /**
+     * Replace the sectors to write whose content is already stored in other
+     * sector by the stored one, the rest are added to the chunk index.
+     * The written sectors must be owned by the file.
+     *
+     * @param node The file.
+     * @param first The index in the sectors of the file of the first sector to write.
+     * @param written The sectors to write, the duplicated ones are replaced by holes.
+     * @param content The content of the sectors to write.
+     * @param batch The batch.
+     * @throws java.io.IOException If an I/O error occurs reading a stored sector.
+     */
+    private void deduplicate(Node node, int first, IntList written, String content, Batch batch) throws IOException {
+        BlockPool pool = pools[node.getPool()];
+        int size = pool.getSectorSize();
+        char[] buffer = new char[size];
         
+        for (int i = 0; i < written.size(); i++) {
+            int sector = written.get(i);
+            if (sector == -1) {
+                continue;
+            }
+            // The content of the sector changes.
+            unindexSector(sector);
+            if (!deduplication || node.getReservedSectors() > 0) {
+                // Preallocated files keep their contiguous sectors.
+                continue;
+            }
+            
+            int start = Math.min(content.length(), i * size);
+            StringBuilder chunk = new StringBuilder(size).append(content, start, Math.min(content.length(), start + size));
+            while (chunk.length() < size) {
+                chunk.append(ZERO);
+            }
+            String data = chunk.toString();
+            ByteBuffer digest = digest(data);
+            int stored = findChunk(pool, digest, data, buffer, batch);
+            
+            if (stored != -1) {
+                pool.retain(stored);
+                batch.release(sector);
+                node.getSectors().set(first + i, stored);
+                written.set(i, -1);
+            }
+            else {
+                indexSector(sector, digest);
+                batch.chunks.put(sector, data);
+            }
+        }
+    }
+    
+    /**
+     * Calculate the SHA-256 digest of the content of a sector.
+     *
+     * @param data The content, padded with empty characters.
+     * @return The digest.
+     */
+    private ByteBuffer digest(String data) {
         try {
-            return getFiles(tree, regex.replace("*", ".*"));
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(data.getBytes(StandardCharsets.UTF_16BE)));
         }
-        catch (PatternSyntaxException ex) {
-            throw new IOException("Invalid regular expression: " + regex);
+        catch (NoSuchAlgorithmException ex) {
+            // Every Java platform implements SHA-256.
+            throw new IllegalStateException(ex);
         }
     }
-
+    
     /**
-     * Get the file system tree.
+     * Find a sector of a pool that stores a content.
+     * The stored candidates are read through the channel kept open by the disk.
      *
-     * @param path The path of the directory.
-     * @return The file system tree.
-     * @throws java.io.IOException If the directory is not found.
+     * @param pool The pool.
+     * @param digest The digest of the content.
+     * @param data The content, padded with empty characters.
+     * @param buffer Where the candidates are read, of the size of a sector of the pool.
+     * @param batch The batch, whose pending writes are compared instead of the disk.
+     * @return The sector, -1 if the content is not stored.
+     * @throws java.io.IOException If an I/O error occurs reading a sector.
      */
-    public Tree<Node> getTree(String path) throws IOException {
-        Tree<Node> tree = searchTree(path);
+    private int findChunk(BlockPool pool, ByteBuffer digest, String data, char[] buffer, Batch batch) throws IOException {
+        IntList candidates = chunkIndex.get(digest);
         
-        if (tree == null) {
-            throw new FileNotFoundException("Directory \"" + path + "\" not found.");
+        if (candidates == null) {
+            return -1;
         }
-        
-        if (!tree.getData().isDirectory()) {
-            throw new NotDirectoryException("The path is not a directory.");
+        for (int i = 0; i < candidates.size(); i++) {
+            int sector = candidates.get(i);
+            if (!pool.contains(sector)) {
+                continue;
+            }
+            // The content is compared too, a collision must not merge different sectors.
+            String pending = batch.chunks.get(sector);
+            if (pending != null) {
+                if (pending.equals(data)) {
+                    return sector;
+                }
+            }
+            else if (data.contentEquals(CharBuffer.wrap(buffer, 0, loadSector(readChannel(), sector, buffer, buffer.length)))) {
+                return sector;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Add a sector to the chunk index.
+     *
+     * @param sector The sector.
+     * @param digest The digest of its content.
+     */
+    private void indexSector(int sector, ByteBuffer digest) {
+        chunkIndex.computeIfAbsent(digest, (key) -> new IntList(1)).add(sector);
+        chunkDigests[sector] = digest;
+        indexedSectors.set(sector);
+    }
+    
+    /**
+     * Remove a sector from the chunk index, before its content changes.
+     *
+     * @param sector The sector.
+     */
+    private void unindexSector(int sector) {
+        if (!indexedSectors.get(sector)) {
+            return;
         }
         
-        return tree;
+        IntList candidates = chunkIndex.get(chunkDigests[sector]);
+        candidates.removeValue(sector);
+        if (candidates.isEmpty()) {
+            chunkIndex.remove(chunkDigests[sector]);
+        }
+        chunkDigests[sector] = null;
+        indexedSectors.clear(sector);
     }
     
-    public List<String> getSectorsContent() {
-        List<String> list = new ArrayList<>();
-        String content;
+    /**
+     * Wipe a range of the sectors of a file, the shared ones are left to the
+     * other files and replaced by holes.
+     *
+     * @param sectors The sectors of the file.
+     * @param from The first index, inclusive.
+     * @param to The last index, exclusive.
+     * @param size The size of a single sector.
+     * @param batch The batch.
+     */
+    private void wipeSectors(IntList sectors, int from, int to, int size, Batch batch) {
+        IntList wiped = new IntList();
         
-        for (Sector sector : totalSectors) {
-            try {
-                content = readSector(sector);
-            } 
-            catch (IOException ex) { 
-                content = "";
+        for (int i = from; i < to; i++) {
+            int sector = sectors.get(i);
+            if (sector == -1) {
+                continue;
+            }
+            if (poolOf(sector).isShared(sector)) {
+                batch.release(sector);
+                sectors.set(i, -1);
+            }
+            else {
+                unindexSector(sector);
+                wiped.add(sector);
+            }
+        }
+        batch.write(wiped, "", size);
+    }
+    
+    /**
+     * Get the last allocated sector of a sector list.
+     *
+     * @param sectors The sectors.
+     * @return The sector, -1 if the list has only holes.
+     */
+    private int lastSector(IntList sectors) {
+        for (int i = sectors.size() - 1; i >= 0; i--) {
+            if (sectors.get(i) != -1) {
+                return sectors.get(i);
             }
-            list.add(content);
         }
+        return -1;
+    }
+    
+    /**
+     * Obtains the amount of characters of disk space used by a file.
+     *
+     * @param node The file.
+     * @return The allocated size.
+     */
+    private long getAllocatedSize(Node node) {
+        if (buffers.containsKey(node)) {
+            return 0;
+        }
+        return (long) countSectors(node.getSectors()) * pools[node.getPool()].getSectorSize() + node.getTailLength();
+    }
+    
+    /**
+     * Store the tail of a file in a shared tail sector.
+     *
+     * @param node The file.
+     * @param tail The tail content.
+     * @param batch The batch.
+     * @throws java.io.IOException If an I/O error occurs reading the tail sector.
+     */
+    private void packTail(Node node, String tail, Batch batch) throws IOException {
+        int pool = node.getPool();
+        int sector = findTailSector(pool, tail.length());
         
-        return list;
+        if (sector == -1) {
+            sector = pools[pool].allocate();
+            pools[pool].setTailFree(sector, -1, pools[pool].getSectorSize());
+        }
+        
+        char[] block = batch.block(sector);
+        int used = tailUsed[sector];
+        tail.getChars(0, tail.length(), block, used);
+        node.setTail(sector, used, tail.length());
+        setTailUsed(sector, used + tail.length());
+        tailCount[sector]++;
     }
     
     /**
-     * Get the files that satisfies certain regular expression in the tree.
+     * Remove the tail of a file from its tail sector.
+     * The tail sector is freed when it doesn't hold any other tail.
      *
-     * @param tree The tree.
-     * @param regex The regular expression.
-     * @return The list of children that satisfies regex.
+     * @param node The file.
+     * @param batch The batch.
+     * @throws java.io.IOException If an I/O error occurs reading the tail sector.
      */
-    private List<String> getFiles(Tree<Node> tree, String regex) throws PatternSyntaxException {
-        List<String> list = new ArrayList<>();
-        Node node;
+    private void releaseTail(Node node, Batch batch) throws IOException {
+        int sector = node.getTailSector();
         
-        for (Tree<Node> child : tree.children())
-        {
-            node = child.getData();
-            if (node.getName().matches(regex)) {
-                list.add(getAbsolutePath(child));
+        if (sector == -1) {
+            return;
+        }
+        
+        int offset = node.getTailOffset();
+        int end = offset + node.getTailLength();
+        
+        if (--tailCount[sector] == 0) {
+            BlockPool pool = poolOf(sector);
+            pool.setTailFree(sector, pool.getSectorSize() - tailUsed[sector], -1);
+            tailUsed[sector] = 0;
+            batch.release(sector);
+        }
+        else if (!poolOf(sector).isShared(sector)) {
+            // A tail sector kept by a snapshot is not changed, the range is not reused.
+            Arrays.fill(batch.block(sector), offset, end, ZERO);
+            if (end == tailUsed[sector]) {
+                setTailUsed(sector, offset);
             }
-            if (node.isDirectory()) {
-                list.addAll(getFiles(child, regex));
+        }
+        node.setTail(-1, 0, 0);
+    }
+    
+    /**
+     * Cut the tail of a file in place, without moving it.
+     *
+     * @param node The file.
+     * @param length The new length of the tail.
+     * @param batch The batch.
+     * @throws java.io.IOException If an I/O error occurs reading the tail sector.
+     */
+    private void shrinkTail(Node node, int length, Batch batch) throws IOException {
+        int sector = node.getTailSector();
+        int offset = node.getTailOffset();
+        int end = offset + node.getTailLength();
+        
+        if (!poolOf(sector).isShared(sector)) {
+            Arrays.fill(batch.block(sector), offset + length, end, ZERO);
+            if (end == tailUsed[sector]) {
+                setTailUsed(sector, offset + length);
             }
         }
-
-        return list;
+        node.setTail(sector, offset, length);
     }
-
+    
     /**
-     * Search a subtree in the current directory or in the root. If the path
-     * starts with '/' the search will start in the root, otherwise if will
-     * start in the current directory.
+     * Find a tail sector of a pool with enough free space at its end.
      *
-     * @param path The path to search.
-     * @return The subtree if found, otherwise null.
+     * @param pool The pool.
+     * @param length The required space.
+     * @return The sector, -1 if there is none.
      */
-    private Tree<Node> searchTree(String path) {
-        String[] array = path.split("/");
-        Tree<Node> actual = current;
-        boolean changed;
-        String curr;
-        Node node;
-        int i = 0;
-
-        if (path.isEmpty()) {
-            return current;
+    private int findTailSector(int pool, int length) {
+        return pools[pool].findTailSector(length);
+    }
+    
+    /**
+     * Change the amount of characters used at the start of a tail sector,
+     * keeping the free space of the sector up to date in its pool.
+     *
+     * @param sector The tail sector.
+     * @param used The new amount of used characters.
+     */
+    private void setTailUsed(int sector, int used) {
+        BlockPool pool = poolOf(sector);
+        pool.setTailFree(sector, pool.getSectorSize() - tailUsed[sector], pool.getSectorSize() - used);
+        tailUsed[sector] = used;
+    }
+    
+    /**
+     * Read the content of a file, including its buffered content.
+     *
+     * @param node The file.
+     * @return The content.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    String readContent(Node node) throws IOException {
+        String buffered = buffers.get(node);
+        if (buffered != null) {
+            return buffered;
         }
-        if (path.startsWith("/")) {
-            actual = root;
-            i = 1;
+        if (node.getInlineContent() != null) {
+            return node.getInlineContent();
+        }
+        if (node.isCompressed()) {
+            StringBuilder content = new StringBuilder((int) node.getSize());
+            for (int i = 0; i < node.getChunks().size(); i++) {
+                content.append(inflateChunk(node, i));
+            }
+            return content.toString();
         }
         
-        for (; i < array.length; i++) {
-            curr = array[i];
-            changed = false;
-            if (curr.equals("..")) {
-                if (!actual.isRoot()) {
-                    actual = actual.parent();
+        StringBuilder content = new StringBuilder(readSectors(node.getSectors(), pools[node.getPool()].getSectorSize()));
+        int tail = node.getTailSector();
+        if (tail != -1) {
+            int offset = node.getTailOffset();
+            content.append(readRawSector(tail), offset, offset + node.getTailLength());
+        }
+        // Trailing holes are not stored.
+        content.setLength((int) node.getSize());
+        return content.toString();
+    }
+    
+    /**
+     * Read a range of the content of a file reading only the sectors that cover it.
+     *
+     * @param node The file.
+     * @param offset The position of the first character.
+     * @param length The amount of characters, the range must be inside the file.
+     * @return The content of the range.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    private String readRange(Node node, long offset, int length) throws IOException {
+        String memory = buffers.containsKey(node) ? buffers.get(node) : node.getInlineContent();
+        
+        if (length == 0) {
+            return "";
+        }
+        if (memory != null) {
+            return memory.substring((int) offset, (int) offset + length);
+        }
+        if (node.isCompressed()) {
+            // Only the chunks that cover the range are decompressed.
+            int first = (int) (offset / COMPRESSION_CHUNK);
+            int last = (int) ((offset + length - 1) / COMPRESSION_CHUNK);
+            StringBuilder content = new StringBuilder();
+            for (int i = first; i <= last; i++) {
+                content.append(inflateChunk(node, i));
+            }
+            int start = (int) (offset - (long) first * COMPRESSION_CHUNK);
+            return content.substring(start, start + length);
+        }
+        
+        IntList sectors = node.getSectors();
+        int size = pools[node.getPool()].getSectorSize();
+        int first = (int) Math.min(offset / size, sectors.size());
+        int last = (int) Math.min((offset + length - 1) / size + 1, sectors.size());
+        long start = (long) first * size;
+        
+        StringBuilder content = new StringBuilder(readSectors(sectors.subList(first, last), size));
+        if (last == sectors.size() && node.getTailSector() != -1) {
+            int tail = node.getTailOffset();
+            content.append(readRawSector(node.getTailSector()), tail, tail + node.getTailLength());
+        }
+        // Trailing holes are not stored.
+        content.setLength((int) (offset - start) + length);
+        return content.substring((int) (offset - start));
+    }
+    
+    /**
+     * Change the sectors owned by a file to hold a content.
+     * The surplus sectors and the sectors of the holes are removed from the file
+     * and released in the batch, the missing ones are allocated. The new list is
+     * built on a copy, the sectors of the file only change once the allocation succeeds.
+     *
+     * @param node The file.
+     * @param content The content.
+     * @param count The new amount of sectors.
+     * @param sparse If the holes of the content don't use sectors.
+     * @param batch The batch.
+     */
+    private void mapSectors(Node node, String content, int count, boolean sparse, Batch batch) {
+        IntList sectors = new IntList(node.getSectors());
+        int size = pools[node.getPool()].getSectorSize();
+        int missing = 0;
+        int sector;
+        
+        while (sectors.size() > count) {
+            sector = sectors.removeLast();
+            if (sector != -1) {
+                batch.release(sector);
+            }
+        }
+        while (sectors.size() < count) {
+            sectors.add(-1);
+        }
+        
+        for (int i = 0; i < count; i++) {
+            sector = sectors.get(i);
+            if (sparse && isHole(content, i, size)) {
+                if (sector != -1) {
+                    batch.release(sector);
+                    sectors.set(i, -1);
                 }
-                changed = true;
             }
-            else {
-                for (Tree<Node> child : actual.children()) {
-                    node = child.getData();
-                    if (node.getName().equals(curr)) {
-                        actual = child;
-                        changed = true;
-                        break;
-                    }
+            else if (sector == -1) {
+                missing++;
+            }
+        }
+        
+        if (missing > 0) {
+            IntList allocated = new IntList(missing);
+            pools[node.getPool()].allocate(allocated, lastSector(sectors), missing);
+            for (int i = 0, j = 0; i < count && j < missing; i++) {
+                if (sectors.get(i) == -1 && !(sparse && isHole(content, i, size))) {
+                    sectors.set(i, allocated.get(j++));
+                }
+            }
+        }
+        
+        node.getSectors().clear();
+        node.getSectors().addAll(sectors);
+    }
+    
+    /**
+     * Read the content of a sector including the empty characters.
+     *
+     * @param sector The sector.
+     * @return The content.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    private String readRawSector(int sector) throws IOException {
+        BlockPool pool = poolOf(sector);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            char[] buffer = new char[pool.getSectorSize()];
+            return new String(buffer, 0, loadSector(channel, sector, buffer, buffer.length));
+        }
+    }
+    
+    /**
+     * Read the content of a list of sectors, opening the disk once.
+     *
+     * @param sectors The sectors, in file order.
+     * @param size The size of a single sector, the length of the holes.
+     * @return The content without the empty characters.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    private String readSectors(IntList sectors, int size) throws IOException {
+        StringBuilder content = new StringBuilder();
+        
+        if (sectors.isEmpty()) {
+            return "";
+        }
+        
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            char[] buffer = new char[size];
+            int sector;
+            
+            for (int i = 0; i < sectors.size(); i++) {
+                sector = sectors.get(i);
+                if (sector == -1) {
+                    appendHole(content, size);
+                }
+                else {
+                    strip(buffer, loadSector(channel, sector, buffer, size), content);
                 }
-            }
-            if (!changed) {
-                return null;
             }
         }
-
-        return actual;
+        
+        return content.toString();
     }
-
+    
     /**
-     * Search a srcTree in the current directory or in the root. If the path starts
-     * with '/' the search will start in the root, otherwise if will start in
-     * the current directory.
+     * Append the content of a hole, a sector of zeros, without reading the disk.
      *
-     * @param path The path to search.
-     * @return The srcTree if found, otherwise null.
+     * @param content Where the zeros are appended.
+     * @param size The size of the sector.
      */
-    private Node searchNode(String path) {
-        Tree<Node> actual = searchTree(path);
-        return actual != null ? actual.getData() : null;
+    private void appendHole(StringBuilder content, int size) {
+        content.append(zeros, 0, size);
     }
     
     /**
-     * Delete a tree in the file system from memory and disk
-     * 
-     * @param tree The tree to delete.
+     * Read a sector of the disk. The sectors of an overlay that were not written
+     * are read from its base.
+     *
+     * @param channel The channel of the image.
+     * @param sector The sector.
+     * @param buffer Where the characters are stored.
+     * @param length The amount of characters to read.
+     * @return The amount of characters read.
+     * @throws java.io.IOException If an I/O error occurs.
      */
-    private void deleteTree(Tree<Node> tree) {
-        if (!tree.isRoot()) {
-            Tree<Node> parent = tree.parent();
-            List<Sector> sectors = tree.getData().getSectors();
-            markSectorsAsAvailable(sectors);
-            parent.remove(tree.getData());
+    private int loadSector(FileChannel channel, int sector, char[] buffer, int length) throws IOException {
+        if (base != null && !overlaid.get(sector)) {
+            return base.loadBaseSector(sector, buffer, length);
         }
+        return readChars(channel, poolOf(sector).offsetOf(sector), buffer, length);
     }
     
-    private String getAbsolutePath(Tree<Node> tree) {
-       if (tree.isRoot()) {
-            return "/";
-       }
-       else {
-            String absolute = "";
-            while (!tree.isRoot()) {
-                absolute = "/" + tree.getData().getName() + absolute;
-                tree = tree.parent();
-            }
-            return absolute;
-       }
-   }
-
     /**
-     * Calculate the amount of oldSectors required to store a string in disk.
+     * Read a sector for an overlay of this disk, keeping the image open between reads.
      *
-     * @param content The string to store.
-     * @return The required oldSectors.
+     * @param sector The sector.
+     * @param buffer Where the characters are stored.
+     * @param length The amount of characters to read.
+     * @return The amount of characters read.
+     * @throws java.io.IOException If an I/O error occurs.
      */
-    private int requiredSectors(String content) {
-        if (content.isEmpty()) {
-            return 0;
-        }
-        else {
-            return (int) Math.ceil((double) content.length() / (double) sectorSize);
-        }
+    private int loadBaseSector(int sector, char[] buffer, int length) throws IOException {
+        return loadSector(readChannel(), sector, buffer, length);
     }
-
+    
     /**
-     * Remove and return n oldSectors from the list of available oldSectors.
+     * Get the channel of the image kept open between reads, opening it if needed.
      *
-     * @param count The number of oldSectors to remove.
-     * @return The oldSectors.
+     * @return The channel.
+     * @throws java.io.IOException If the image can't be opened.
      */
-    private List<Sector> getSectors(int count) {
-        List<Sector> sectors = new ArrayList<>();
-        for (int i = 0; i < count; i++) {
-            sectors.add(availableSectors.remove(0));
+    private FileChannel readChannel() throws IOException {
+        if (readChannel == null || !readChannel.isOpen()) {
+            readChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
         }
-        return sectors;
+        return readChannel;
     }
     
     /**
-     * Wipe and add a sector list to the available oldSectors.
-     * 
-     * @param sectors The oldSectors.
+     * Read characters of the disk at a given position.
+     *
+     * @param channel The channel of the disk.
+     * @param position The position of the first character.
+     * @param buffer Where the characters are stored.
+     * @param length The amount of characters to read.
+     * @return The amount of characters read.
+     * @throws java.io.IOException If an I/O error occurs.
      */
-    private void markSectorsAsAvailable(List<Sector> sectors) {
-        writeZeros(sectors);
-        availableSectors.addAll(sectors);
-        Collections.sort(availableSectors);
+    private int readChars(FileChannel channel, long position, char[] buffer, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length * CHAR_BYTES);
+        long offset = position * CHAR_BYTES;
+        
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, offset + bytes.position()) == -1) {
+                break;
+            }
+        }
+        bytes.flip();
+        
+        int count = bytes.remaining() / CHAR_BYTES;
+        bytes.asCharBuffer().get(buffer, 0, count);
+        return count;
     }
     
-    private String readSector(Sector sector) throws IOException {
-        try (InputStream in = new FileInputStream(file)) {
-            Reader reader = new InputStreamReader(in);
-            reader.skip(sector.getIndex() * sectorSize);
-            String content = "";
-            char c;
-            
-            for (int i = 0; i < sectorSize; i++) {
-                c = (char) reader.read();
-                if (c != Disk.ZERO) {
-                    content += c;
-                }
-            }
-            
-            return content;
+    /**
+     * Write characters to the disk at a given position.
+     *
+     * @param channel The channel of the disk.
+     * @param position The position of the first character.
+     * @param buffer The characters.
+     * @param length The amount of characters to write.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    private void writeChars(FileChannel channel, long position, char[] buffer, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length * CHAR_BYTES);
+        long offset = position * CHAR_BYTES;
+        
+        bytes.asCharBuffer().put(buffer, 0, length);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, offset + bytes.position());
         }
     }
     
-    private String readSectors(List<Sector> sectors) throws IOException {
-        String content = "";
-        for (Sector sector : sectors) {
-            content += readSector(sector);
+    /**
+     * Append the non empty characters of a buffer.
+     *
+     * @param buffer The buffer.
+     * @param length The amount of characters in the buffer.
+     * @param content Where the characters are appended.
+     */
+    private void strip(char[] buffer, int length, StringBuilder content) {
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] != Disk.ZERO) {
+                content.append(buffer[i]);
+            }
         }
-        return content;
     }
 
     /**
-     * Write a string to a file in the given oldSectors.
+     * Write a string to a file in the given sectors, in place.
+     * The content is the concatenation of the chunks of the sectors, each one as long
+     * as the sectors of its pool. The chunk i of the content is written to the i-th
+     * sector of the list and missing content is filled with empty characters.
+     * Holes in the list are skipped. Only the given sectors are written.
      *
-     * @param sectors The oldSectors.
+     * @param sectors The sectors.
      * @param content The content to write.
-     * @return true if no errors occurs.
-     */
-    private boolean writeToSectors(List<Sector> sectors, String content) {
-        java.io.File temp = new java.io.File("disk.temp");
-        try (InputStream in = new FileInputStream(file)) {
-            try (OutputStream out = new FileOutputStream(temp)) {
-                Writer writer = new OutputStreamWriter(out);
-                Reader reader = new InputStreamReader(in);
-                String chunk = "";
-                
-                int c;     /* The current character */
-                int i = 0; /* The current sector */
-                int j = 0; /* The current chunk */
-                
-                while ((c = reader.read()) != -1) {
-                    chunk += (char) c;
-                    if (chunk.length() == sectorSize) {
-                        if (sectors.contains(new Sector(i))) {
-                            chunk = StringUtils.substring(content, j * sectorSize, (j+1) * sectorSize);
-                            chunk = StringUtils.fill(chunk, ZERO, sectorSize);
-                            j++;
-                        }
-                        writer.write(chunk);
-                        chunk = "";
-                        i++;
-                    }
-                }
-                writer.flush();
+     * @throws java.io.IOException If an I/O error occurs writing the sectors.
+     */
+    private void writeToSectors(IntList sectors, String content) throws IOException {
+        // Pairs (sector, chunk start) packed in a long and sorted by sector, holes are skipped.
+        long[] order = new long[sectors.size()];
+        int pairs = 0;
+        int position = 0;
+        int sector;
+        for (int j = 0; j < sectors.size(); j++) {
+            sector = sectors.get(j);
+            if (sector != -1) {
+                order[pairs++] = ((long) sector << 32) | Math.min(position, content.length());
+                position += poolOf(sector).getSectorSize();
+            }
+        }
+        Arrays.sort(order, 0, pairs);
+        
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            char[] chunk = new char[zeros.length];
+            BlockPool pool;
+            int size;
+            int start;
+            int end;
+            
+            // When a sector appears twice the last chunk wins.
+            for (int i = 0; i < pairs; i++) {
+                sector = (int) (order[i] >>> 32);
+                pool = poolOf(sector);
+                size = pool.getSectorSize();
+                start = (int) order[i];
+                end = Math.min(content.length(), start + size);
+                content.getChars(start, end, chunk, 0);
+                Arrays.fill(chunk, end - start, size, ZERO);
+                writeChars(channel, pool.offsetOf(sector), chunk, size);
+                overlaid.set(sector);
             }
-        } 
-        catch (IOException ex) {
-            return false;
         }
-
-        file.delete();
-        temp.renameTo(file);
-        return true;
     }
 
     /**
      * Delete the content of the entire disk.
      */
     private boolean writeZeros() {
-        String text = StringUtils.repeat(Disk.ZERO, sectorSize * sectorAmount);
-        try (OutputStream out = new FileOutputStream(file)) {
-            Writer writer = new OutputStreamWriter(out);
-            writer.write(text);
-            writer.flush();
+        char[] chunk = new char[zeros.length];
+        Arrays.fill(chunk, Disk.ZERO);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (BlockPool pool : pools) {
+                for (int i = 0; i < pool.getSectorAmount(); i++) {
+                    writeChars(channel, pool.offsetOf(pool.getFirst() + i), chunk, pool.getSectorSize());
+                }
+            }
             return true;
         }
         catch (IOException ex) {
@@ -715,28 +3653,6 @@ public class Disk {
         }
     }
     
-    /**
-     * Delete the content of a sector.
-     *
-     * @param sector The sector.
-     */
-    private boolean writeZeros(Sector sector) {
-        List<Sector> list = new ArrayList<>();
-        list.add(sector);
-        String text = StringUtils.repeat(Disk.ZERO, sectorSize);
-        return writeToSectors(list, text);
-    }
-
-    /**
-     * Delete the content of a list of oldSectors.
-     *
-     * @param sectors The oldSectors.
-     */
-    private boolean writeZeros(List<Sector> sectors) {
-        String text = StringUtils.repeat(Disk.ZERO, sectorSize * sectors.size());
-        return writeToSectors(sectors, text);
-    }
-    
     /**
      * Copies a file with real path to a virtual path.
      * 
@@ -778,25 +3694,19 @@ public class Disk {
         }
         else
         {
-            if(exists(destination))
+            try (InputStream in = Files.newInputStream(originFile.toPath()))
             {
-                byte[] bytes = Files.readAllBytes(originFile.toPath());
-                String content = new String(bytes);
-                if(destinationNode.isDirectory())
+                if(exists(destination) && destinationNode.isDirectory())
                 {
                     String dir = getCurrentDirectory();
                     changeCurrentDirectory(destination);
-                    createFile(originFile.getName(), content);
+                    transfer(in, openOutputStream(originFile.getName()));
                     changeCurrentDirectory(dir);
                 }
-                
-                writeToSectors(destinationNode.getSectors(), content);
-            }
-            else
-            {
-                byte[] bytes = Files.readAllBytes(originFile.toPath());
-                String content = new String(bytes);
-                createFile(destination, content);
+                else
+                {
+                    transfer(in, openOutputStream(destination));
+                }
             }
         }
         copiedNode = searchNode(destination);
@@ -810,6 +3720,7 @@ public class Disk {
     
     /**
      * Copies a file from a virtual srcTree to another virtual srcTree.
+     * The copied files share the sectors of the originals until one of them changes.
      * 
      * @param origin The first virtual path.
      * @param destination The destination virtual path.
@@ -860,26 +3771,25 @@ public class Disk {
                 if(node.isDirectory())
                 {
                     String dir = getCurrentDirectory();
-                    String content = getFileContent(origin);
                     changeCurrentDirectory(destination);
-                    createFile(originNode.getName(), content);
+                    shareContent(originNode, searchOrCreateFile(originNode.getName()));
                     changeCurrentDirectory(dir);
                 }
                 else
                 {
-                    writeToSectors(node.getSectors(), getFileContent(origin));
+                    shareContent(originNode, searchOrCreateFile(destination));
                 }    
             }
             else
             {
-                createFile(destination, getFileContent(origin));
+                shareContent(originNode, searchOrCreateFile(destination));
             }
         }
         copiedNode = searchNode(destination);
         if(copiedNode != null)
         {
-            copiedNode.setCreationDate(originNode.getCreationDate());
-            copiedNode.setLastModificationDate(originNode.getLastModificationDate());
+            copiedNode.setCreationTime(originNode.getCreationTime());
+            copiedNode.setLastModificationTime(originNode.getLastModificationTime());
         }      
     }
     
@@ -920,8 +3830,7 @@ public class Disk {
         }
         else
         {
-            String content = readSectors(originNode.getSectors());
-            createRealFile(destination, content);
+            createRealFile(destination, originNode);
         }
     }
     
@@ -929,16 +3838,665 @@ public class Disk {
      * Creates a file (can be a directory also) in the real file system.
      * 
      * @param destination The destination path,
-     * @param content The content of the file.
+     * @param node The virtual file with the content.
      */
-    private void createRealFile(String destination, String content) throws IOException
+    private void createRealFile(String destination, Node node) throws IOException
     {
         java.io.File fileOut = new java.io.File(destination);
-        FileWriter fw = new FileWriter(fileOut.getAbsoluteFile());
-        try (BufferedWriter bw = new BufferedWriter(fw)) {
-            bw.write(content);
+        transfer(new ContentInputStream(node), new FileOutputStream(fileOut.getAbsoluteFile()));
+    }
+    
+    /**
+     * Copy all the content of a stream to other stream and close both of them.
+     * 
+     * @param in The source stream.
+     * @param out The destination stream.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    private void transfer(InputStream in, OutputStream out) throws IOException
+    {
+        try (InputStream source = in; OutputStream destination = out) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = source.read(buffer)) != -1) {
+                destination.write(buffer, 0, read);
+            }
+        }
+    }
+    
+    /**
+     * Sector writes accumulated to be done in a single pass over the disk.
+     */
+    private class Batch {
+        
+        /**
+         * Sectors written with whole sector content.
+         */
+        private final IntList sectors = new IntList();
+        
+        /**
+         * Content of the written sectors.
+         */
+        private final StringBuilder content = new StringBuilder();
+        
+        /**
+         * Sectors partially modified, like the tail sectors.
+         */
+        private final IntList blocks = new IntList();
+        
+        /**
+         * Content of the partially modified sectors.
+         */
+        private final List<char[]> blockContents = new ArrayList<>();
+        
+        /**
+         * Sectors to wipe and mark as available.
+         */
+        private final IntList released = new IntList();
+        
+        /**
+         * Padded content of the written sectors added to the chunk index, indexed by sector.
+         */
+        private final Map<Integer, String> chunks = new HashMap<>();
+        
+        /**
+         * Write a content to a list of sectors of the same pool. The chunks of the holes are dropped.
+         * 
+         * @param list The sectors.
+         * @param data The content.
+         * @param size The size of a single sector.
+         */
+        public void write(IntList list, String data, int size) {
+            int start;
+            int end;
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i) == -1) {
+                    continue;
+                }
+                start = Math.min(data.length(), i * size);
+                end = Math.min(data.length(), start + size);
+                sectors.add(list.get(i));
+                content.append(data, start, end);
+                for (int j = end - start; j < size; j++) {
+                    content.append(ZERO);
+                }
+            }
+        }
+        
+        /**
+         * Get the content of a sector to be modified in place.
+         * 
+         * @param sector The sector.
+         * @return The content of the sector.
+         * @throws java.io.IOException If an I/O error occurs reading the sector.
+         */
+        public char[] block(int sector) throws IOException {
+            int index = blocks.indexOf(sector);
+            if (index != -1) {
+                return blockContents.get(index);
+            }
+            
+            BlockPool pool = poolOf(sector);
+            char[] block = new char[pool.getSectorSize()];
+            Arrays.fill(block, ZERO);
+            if (pool.isUsed(sector) && tailCount[sector] > 0) {
+                String raw = readRawSector(sector);
+                raw.getChars(0, raw.length(), block, 0);
+            }
+            blocks.add(sector);
+            blockContents.add(block);
+            return block;
+        }
+        
+        /**
+         * Wipe a sector and mark it as available. A shared sector only loses a reference.
+         * 
+         * @param sector The sector.
+         */
+        public void release(int sector) {
+            BlockPool pool = poolOf(sector);
+            if (pool.isShared(sector)) {
+                // Other files keep the sector.
+                pool.unshare(sector);
+                return;
+            }
+            
+            int index = blocks.indexOf(sector);
+            if (index != -1) {
+                blocks.removeValue(sector);
+                blockContents.remove(index);
+            }
+            unindexSector(sector);
+            chunks.remove(sector);
+            released.add(sector);
+        }
+        
+        /**
+         * Wipe a list of sectors and mark them as available.
+         * 
+         * @param list The sectors.
+         */
+        public void release(IntList list) {
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i) != -1) {
+                    release(list.get(i));
+                }
+            }
+        }
+        
+        /**
+         * Write all the changes in the disk. The released sectors are only
+         * marked as available once they are wiped, if the write fails they
+         * stay in use so no file can get a sector with stale content.
+         * 
+         * @throws java.io.IOException If an I/O error occurs writing the sectors.
+         */
+        public void commit() throws IOException {
+            IntList list = new IntList(sectors);
+            StringBuilder data = new StringBuilder(content);
+            
+            list.addAll(blocks);
+            for (char[] block : blockContents) {
+                data.append(block);
+            }
+            list.addAll(released);
+            
+            if (!list.isEmpty()) {
+                writeToSectors(list, data.toString());
+            }
+            for (int i = 0; i < released.size(); i++) {
+                poolOf(released.get(i)).free(released.get(i));
+            }
+        }
+        
+    }
+    
+    /**
+     * Stream over the content of a file that reads one sector at a time.
+     */
+    private class ContentInputStream extends InputStream {
+        
+        /**
+         * The file.
+         */
+        private final Node node;
+        
+        /**
+         * The content of the file if it is kept in memory, null if it is in disk.
+         */
+        private final String memory;
+        
+        /**
+         * Encoder of the characters of the file.
+         */
+        private final CharsetEncoder encoder;
+        
+        /**
+         * Characters read but not encoded yet.
+         */
+        private CharBuffer chars;
+        
+        /**
+         * Bytes encoded but not returned yet.
+         */
+        private final ByteBuffer bytes;
+        
+        /**
+         * Buffer of a single sector.
+         */
+        private final char[] buffer;
+        
+        /**
+         * Amount of characters of the file not read yet.
+         */
+        private long remaining;
+        
+        /**
+         * The next sector of the file or the next position of the memory content.
+         */
+        private int next;
+        
+        /**
+         * Flag indicating if the tail of the file was read.
+         */
+        private boolean tailRead;
+        
+        /**
+         * Flag indicating if all the content was encoded.
+         */
+        private boolean ended;
+        
+        /**
+         * Channel of the disk, opened with the first sector.
+         */
+        private FileChannel channel;
+        
+        /**
+         * Create a new stream.
+         * 
+         * @param node The file.
+         */
+        public ContentInputStream(Node node) {
+            this.node = node;
+            this.memory = buffers.containsKey(node) ? buffers.get(node) : node.getInlineContent();
+            this.encoder = Charset.defaultCharset().newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.chars = CharBuffer.allocate(0);
+            this.bytes = ByteBuffer.allocate(1024);
+            this.buffer = new char[Math.max(zeros.length, COMPRESSION_CHUNK)];
+            this.remaining = node.getSize();
+            this.bytes.flip();
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!bytes.hasRemaining() && !fill()) {
+                return -1;
+            }
+            
+            int count = Math.min(len, bytes.remaining());
+            bytes.get(b, off, count);
+            return count;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+        
+        /**
+         * Encode the next characters of the file.
+         * 
+         * @return true if there are bytes to return.
+         * @throws java.io.IOException If an I/O error occurs.
+         */
+        private boolean fill() throws IOException {
+            bytes.clear();
+            while (bytes.position() == 0 && !ended) {
+                CoderResult result = encoder.encode(chars, bytes, false);
+                if (result.isUnderflow()) {
+                    String chunk = nextChunk();
+                    if (chunk == null) {
+                        encoder.encode(chars, bytes, true);
+                        encoder.flush(bytes);
+                        ended = true;
+                    }
+                    else {
+                        // Keep an unfinished surrogate pair for the next chunk.
+                        chars = CharBuffer.wrap(chars.toString() + chunk);
+                    }
+                }
+            }
+            bytes.flip();
+            return bytes.hasRemaining();
+        }
+        
+        /**
+         * Read the next chunk of the file, at most a sector.
+         * 
+         * @return The chunk, null at the end of the file.
+         * @throws java.io.IOException If an I/O error occurs.
+         */
+        private String nextChunk() throws IOException {
+            if (remaining <= 0) {
+                return null;
+            }
+            
+            String chunk = readChunk();
+            if (chunk == null) {
+                // Trailing holes are not stored.
+                chunk = new String(zeros, 0, (int) Math.min(remaining, zeros.length));
+            }
+            if (chunk.length() > remaining) {
+                chunk = chunk.substring(0, (int) remaining);
+            }
+            remaining -= chunk.length();
+            return chunk;
+        }
+        
+        /**
+         * Read the next stored chunk of the file.
+         * 
+         * @return The chunk, null if there are no more chunks stored.
+         * @throws java.io.IOException If an I/O error occurs.
+         */
+        private String readChunk() throws IOException {
+            if (memory != null) {
+                if (next >= memory.length()) {
+                    return null;
+                }
+                int start = next;
+                next = Math.min(memory.length(), start + buffer.length);
+                return memory.substring(start, next);
+            }
+            
+            if (node.isCompressed()) {
+                return next < node.getChunks().size() ? inflateChunk(node, next++) : null;
+            }
+            
+            IntList sectors = node.getSectors();
+            if (next < sectors.size()) {
+                return readSector(sectors.get(next++), pools[node.getPool()].getSectorSize());
+            }
+            if (!tailRead && node.getTailSector() != -1) {
+                tailRead = true;
+                int offset = node.getTailOffset();
+                return readRawSector(node.getTailSector()).substring(offset, offset + node.getTailLength());
+            }
+            return null;
+        }
+        
+        /**
+         * Read a sector of the file.
+         * 
+         * @param sector The sector, -1 for a hole.
+         * @param size The size of the sector.
+         * @return The content without the empty characters.
+         * @throws java.io.IOException If an I/O error occurs.
+         */
+        private String readSector(int sector, int size) throws IOException {
+            if (sector == -1) {
+                return new String(zeros, 0, size);
+            }
+            
+            if (channel == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+            
+            int read = loadSector(channel, sector, buffer, size);
+            StringBuilder content = new StringBuilder(read);
+            strip(buffer, read, content);
+            return content.toString();
         }
+        
     }
     
+    /**
+     * Stream that replaces the content of a file writing groups of whole sectors.
+     * The sectors are written to new sectors and replace the ones of the file
+     * when the stream is closed, so a failed stream leaves the file unchanged.
+     */
+    private class ContentOutputStream extends OutputStream {
+        
+        /**
+         * The file.
+         */
+        private final Node node;
+        
+        /**
+         * Detached file that owns the sectors written by the stream until it is closed.
+         */
+        private final Node scratch;
+        
+        /**
+         * Decoder of the received bytes.
+         */
+        private final CharsetDecoder decoder;
+        
+        /**
+         * Bytes received but not decoded yet.
+         */
+        private final ByteBuffer input;
+        
+        /**
+         * Characters decoded but not written yet.
+         */
+        private final CharBuffer output;
+        
+        /**
+         * Amount of sectors of the file already written.
+         */
+        private int written;
+        
+        /**
+         * Amount of characters of the file already written.
+         */
+        private long length;
+        
+        /**
+         * Flag indicating if the content is being written to disk before the stream is closed.
+         */
+        private boolean streaming;
+        
+        /**
+         * Flag indicating if the stream is closed.
+         */
+        private boolean closed;
+        
+        /**
+         * Position of each chunk in the compressed content, null if the content is not compressed.
+         */
+        private IntList chunks;
+        
+        /**
+         * Compressed characters that don't fill a whole sector yet.
+         */
+        private final StringBuilder packed;
+        
+        /**
+         * Amount of compressed characters produced.
+         */
+        private int stored;
+        
+        /**
+         * Create a new stream.
+         * 
+         * @param node The file.
+         */
+        public ContentOutputStream(Node node) {
+            this.node = node;
+            this.scratch = new File(node.getName());
+            this.decoder = Charset.defaultCharset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.input = ByteBuffer.allocate(1024);
+            // At least one sector of every pool fits in the buffer.
+            this.output = CharBuffer.allocate(Math.max(BUFFER_LIMIT, zeros.length));
+            this.packed = new StringBuilder();
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed.");
+            }
+            
+            while (len > 0) {
+                int count = Math.min(len, input.remaining());
+                input.put(b, off, count);
+                off += count;
+                len -= count;
+                decode(false);
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            
+            closed = true;
+            decode(true);
+            
+            if (streaming) {
+                drain(true);
+                replace();
+                node.setLastModificationTime(System.currentTimeMillis());
+            }
+            else {
+                output.flip();
+                String content = output.toString();
+                if (delayedAllocation) {
+                    bufferContent(node, content);
+                }
+                else {
+                    writeContent(node, content);
+                }
+            }
+        }
+        
+        /**
+         * Decode the received bytes, writing the decoded characters when the buffer is full.
+         * 
+         * @param end If there are no more bytes.
+         * @throws java.io.IOException If an I/O error occurs writing to disk.
+         */
+        private void decode(boolean end) throws IOException {
+            input.flip();
+            while (decoder.decode(input, output, end).isOverflow()) {
+                drain(false);
+            }
+            if (end) {
+                while (decoder.flush(output).isOverflow()) {
+                    drain(false);
+                }
+            }
+            input.compact();
+        }
+        
+        /**
+         * Write the decoded characters to the sectors of the file.
+         * Only whole sectors are written unless it is the last write.
+         * When the content is compressed, each whole chunk is compressed as
+         * soon as it is decoded and the compressed characters are written
+         * in groups of whole sectors too.
+         * 
+         * @param last If it is the last write, the rest of the old content is removed.
+         * @throws java.io.IOException If there isn't enough space.
+         */
+        private void drain(boolean last) throws IOException {
+            boolean compressed = streaming ? chunks != null : isCompressible(node, output.capacity());
+            int pool = streaming ? scratch.getPool() : node.getPool();
+            if (!streaming && node.getReservedSectors() == 0) {
+                // The final size is unknown but it is at least the size of the buffer.
+                pool = choosePool(output.capacity());
+            }
+            
+            if (!streaming) {
+                streaming = true;
+                scratch.setPool(pool);
+                // The new sectors follow the rules of the file: preallocated files keep holes stored.
+                scratch.setReservedSectors(node.getReservedSectors());
+                chunks = compressed ? new IntList() : null;
+                scratch.setChunks(chunks, 0);
+            }
+            
+            int size = pools[pool].getSectorSize();
+            output.flip();
+            int consumed;
+            IntList index = new IntList();
+            String pending;
+            
+            if (compressed) {
+                consumed = last ? output.remaining() : output.remaining() / COMPRESSION_CHUNK * COMPRESSION_CHUNK;
+                pending = compress(output.subSequence(0, consumed).toString(), index);
+            }
+            else {
+                consumed = last ? output.remaining() : output.remaining() / size * size;
+                pending = output.subSequence(0, consumed).toString();
+            }
+            
+            String content = packed + pending;
+            int count = last ? content.length() : content.length() / size * size;
+            String data = content.substring(0, count);
+            
+            if (missingSectors(scratch, pool, written, data) > pools[pool].getAvailableSectors() - pendingSectors(node, pool)) {
+                discard();
+                throw new IOException("Insufficient disk space.");
+            }
+            
+            output.position(consumed);
+            output.compact();
+            
+            if (compressed) {
+                for (int i = 0; i < index.size(); i++) {
+                    chunks.add(stored + index.get(i));
+                }
+                stored += pending.length();
+            }
+            packed.setLength(0);
+            packed.append(content, count, content.length());
+            
+            Batch batch = new Batch();
+            writeSectors(scratch, written, data, batch);
+            written += requiredSectors(count, size);
+            length += consumed;
+            batch.commit();
+        }
+        
+        /**
+         * Release the sectors written by a failed stream, the file keeps its content.
+         * The stream can't be used after it fails.
+         * 
+         * @throws java.io.IOException If an I/O error occurs wiping the sectors.
+         */
+        private void discard() throws IOException {
+            closed = true;
+            Batch batch = new Batch();
+            batch.release(scratch.getSectors());
+            scratch.getSectors().clear();
+            batch.commit();
+        }
+        
+        /**
+         * Replace the content of the file with the sectors written by the stream.
+         * A preallocated file keeps its old sectors after the new ones, wiped,
+         * so it doesn't own less sectors than it reserved.
+         * 
+         * @throws java.io.IOException If an I/O error occurs wiping the old sectors.
+         */
+        private void replace() throws IOException {
+            IntList sectors = new IntList(scratch.getSectors());
+            IntList old = node.getSectors();
+            int pool = scratch.getPool();
+            int size = pools[pool].getSectorSize();
+            Batch batch = new Batch();
+            
+            unbuffer(node);
+            releaseTail(node, batch);
+            node.setInlineContent(null);
+            
+            int count = sectors.size();
+            if (pool == node.getPool()) {
+                while (sectors.size() < Math.min(node.getReservedSectors(), old.size())) {
+                    sectors.add(old.get(sectors.size()));
+                }
+            }
+            // The old sectors are released except the ones kept for the reservation.
+            for (int i = 0; i < old.size(); i++) {
+                if ((i < count || i >= sectors.size()) && old.get(i) != -1) {
+                    batch.release(old.get(i));
+                }
+            }
+            wipeSectors(sectors, count, sectors.size(), size, batch);
+            
+            old.clear();
+            old.addAll(sectors);
+            node.setPool(pool);
+            node.setChunks(chunks, stored);
+            node.setSize(length);
+            batch.commit();
+        }
+        
+    }
     
 }
@@ -1,7 +1,6 @@
 package fs;
 
-import java.util.ArrayList;
-import java.util.List;
+import fs.util.IntList;
 
 /**
  *
@@ -9,18 +8,22 @@ import java.util.List;
  */
 public class File extends Node {
 
-    public File(String name, List<Sector> sectors) {
+    public File(String name, IntList sectors) {
         super(name, sectors);
     }
     
     public File(String name) {
-        this(name, new ArrayList<>());
+        this(name, new IntList(1));
+    }
+    
+    public File(long inode, String name) {
+        super(inode, name, new IntList(1));
     }
     
     public File(File file) {
-        this(file.name);
-        this.creationDate = file.creationDate;
-        this.lastModificationDate = file.lastModificationDate;
+        this(file.inode, file.name);
+        this.creationTime = file.creationTime;
+        this.lastModificationTime = file.lastModificationTime;
     }
     
 }
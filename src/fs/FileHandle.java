@@ -0,0 +1,221 @@
+package fs;
+
+import fs.util.Tree;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * An open file of a disk.
+ * The handle is bound to the file, so its operations don't resolve any path.
+ *
+ * @author José Andrés García Sáenz <jags9415@gmail.com>
+ */
+public class FileHandle implements Closeable {
+
+    /**
+     * The disk of the file.
+     */
+    private final Disk disk;
+
+    /**
+     * The descriptor of the handle in the open-file table.
+     */
+    private final int descriptor;
+
+    /**
+     * The tree of the file.
+     */
+    private final Tree<Node> tree;
+
+    /**
+     * Flag indicating if the handle is closed.
+     */
+    private boolean closed;
+
+    /**
+     * Create a new handle.
+     *
+     * @param disk The disk of the file.
+     * @param descriptor The descriptor.
+     * @param tree The tree of the file.
+     */
+    FileHandle(Disk disk, int descriptor, Tree<Node> tree) {
+        this.disk = disk;
+        this.descriptor = descriptor;
+        this.tree = tree;
+        this.closed = false;
+    }
+
+    /**
+     * Get the descriptor of the handle.
+     *
+     * @return The descriptor.
+     */
+    public int getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * Get the file.
+     *
+     * @return The file node.
+     */
+    public Node getNode() {
+        return tree.getData();
+    }
+
+    /**
+     * Check if the handle is closed.
+     *
+     * @return true if the handle was closed or its file was deleted.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Read the content of the file.
+     *
+     * @return The content.
+     * @throws IOException If the handle is closed or an I/O error occurs.
+     */
+    public String read() throws IOException {
+        checkOpen();
+        return disk.readContent(getNode());
+    }
+
+    /**
+     * Read a range of the content of the file.
+     *
+     * @param offset The position of the first character.
+     * @param length The maximum amount of characters to read.
+     * @return The content of the range.
+     * @throws IOException If the handle is closed or an I/O error occurs.
+     */
+    public String read(long offset, int length) throws IOException {
+        checkOpen();
+        return disk.read(getNode(), offset, length);
+    }
+
+    /**
+     * Replace the content of the file.
+     *
+     * @param content The new content.
+     * @throws IOException If the handle is closed or there isn't enough space.
+     */
+    public void write(String content) throws IOException {
+        checkOpen();
+        disk.rewriteContent(getNode(), content);
+    }
+
+    /**
+     * Write a content at a position of the file.
+     *
+     * @param offset The position of the first character.
+     * @param data The content.
+     * @throws IOException If the handle is closed or there isn't enough space.
+     */
+    public void write(long offset, String data) throws IOException {
+        checkOpen();
+        disk.write(getNode(), offset, data);
+    }
+
+    /**
+     * Append a content at the end of the file.
+     *
+     * @param data The content.
+     * @throws IOException If the handle is closed or there isn't enough space.
+     */
+    public void append(String data) throws IOException {
+        checkOpen();
+        disk.append(getNode(), data);
+    }
+
+    /**
+     * Change the size of the file.
+     *
+     * @param length The new size.
+     * @throws IOException If the handle is closed or there isn't enough space.
+     */
+    public void truncate(long length) throws IOException {
+        checkOpen();
+        disk.truncate(getNode(), length);
+    }
+
+    /**
+     * Get the size of the file.
+     *
+     * @return The size.
+     * @throws IOException If the handle is closed.
+     */
+    public long getSize() throws IOException {
+        checkOpen();
+        return getNode().getSize();
+    }
+
+    /**
+     * Obtains the properties of the file.
+     *
+     * @return The file properties as a dictionary.
+     * @throws IOException If the handle is closed.
+     */
+    public Map<String, Object> stat() throws IOException {
+        checkOpen();
+        return disk.getFileProperties(tree);
+    }
+
+    /**
+     * Open a stream to read the content of the file.
+     *
+     * @return The stream.
+     * @throws IOException If the handle is closed.
+     */
+    public InputStream openInputStream() throws IOException {
+        checkOpen();
+        return disk.openInputStream(getNode());
+    }
+
+    /**
+     * Open a stream to replace the content of the file.
+     *
+     * @return The stream.
+     * @throws IOException If the handle is closed.
+     */
+    public OutputStream openOutputStream() throws IOException {
+        checkOpen();
+        return disk.openOutputStream(getNode());
+    }
+
+    /**
+     * Close the handle and remove it from the open-file table.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            disk.close(this);
+        }
+    }
+
+    /**
+     * Mark the handle as closed without touching the open-file table.
+     */
+    void invalidate() {
+        closed = true;
+    }
+
+    /**
+     * Check that the handle is open.
+     *
+     * @throws IOException If the handle is closed.
+     */
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("File handle " + descriptor + " is closed.");
+        }
+    }
+
+}
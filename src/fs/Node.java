@@ -1,53 +1,105 @@
 package fs;
 
+import fs.util.IntList;
+import fs.util.Named;
+import fs.util.Tree;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
-import java.util.Objects;
 
 /**
  * Represents the nodes information of the three.
  * 
  * @author Leonardo
  */
-public abstract class Node {
+public abstract class Node implements Named {
     
+    protected final long inode;
     protected String name;
     protected final boolean isDirectory;
-    protected Date creationDate;
-    protected Date lastModificationDate;
-    protected List<Sector> sectors;
+    protected long creationTime;
+    protected long lastModificationTime;
+    protected IntList sectors;
+    protected long size;
+    protected int pool;
+    protected int reservedSectors;
+    protected String inlineContent;
+    protected int tailSector;
+    protected int tailOffset;
+    protected int tailLength;
+    protected boolean readOnly;
+    protected IntList chunks;
+    protected long storedSize;
+    private Tree<Node> tree;
+    private boolean linked;
+    private long totalSize;
+    private long totalSectors;
+    
+    /**
+     * Creates a new file Node object without an inode number.
+     * 
+     * @param name The name of the file.
+     * @param sectors List of sectors related to the file.
+     */
+    protected Node(String name, IntList sectors)
+    {
+        this(0, name, sectors);
+    }
     
     /**
      * Creates a new file Node object.
      * 
+     * @param inode The inode number of the file, 0 if it has none.
      * @param name The name of the file.
      * @param sectors List of sectors related to the file.
      */
-    protected Node(String name, List<Sector> sectors)
+    protected Node(long inode, String name, IntList sectors)
     {
+        this.inode = inode;
         this.name = name;
         this.isDirectory = false;
-        this.creationDate = new Date();
-        this.lastModificationDate = creationDate;
+        this.creationTime = System.currentTimeMillis();
+        this.lastModificationTime = creationTime;
         this.sectors = sectors;
+        this.tailSector = -1;
     }
     
     /**
-     * Creates a new directory node object.
+     * Creates a new directory node object without an inode number.
      * 
      * @param name The name of the directory.
      */
    protected Node(String name)
     {
+        this(0, name);
+    }
+    
+    /**
+     * Creates a new directory node object.
+     * 
+     * @param inode The inode number of the directory, 0 if it has none.
+     * @param name The name of the directory.
+     */
+   protected Node(long inode, String name)
+    {
+        this.inode = inode;
         this.name = name;
         this.isDirectory = true;
-        this.creationDate = new Date();
-        this.lastModificationDate = creationDate;
-        this.sectors = new ArrayList<>();
+        this.creationTime = System.currentTimeMillis();
+        this.lastModificationTime = creationTime;
+        this.sectors = new IntList(0);
+        this.tailSector = -1;
     }
    
+   /**
+    * Obtains the inode number of a node, unique in its disk and kept while the node exists.
+    * 
+    * @return The inode number, 0 if the node was not created by a disk.
+    */
+   public long getInode()
+   {
+       return this.inode;
+   }
+   
    /**
     * Obtains the name of a node.
     * 
@@ -63,7 +115,7 @@ public abstract class Node {
     * 
     * @return The sectors.
     */
-    public List<Sector> getSectors() {
+    public IntList getSectors() {
         return sectors;
     }
    
@@ -74,7 +126,17 @@ public abstract class Node {
     */
    public Date getCreationDate()
    {
-       return this.creationDate;
+       return new Date(this.creationTime);
+   }
+   
+   /**
+    * Obtains the creation time of the node.
+    * 
+    * @return The creation time in milliseconds since the epoch.
+    */
+   public long getCreationTime()
+   {
+       return this.creationTime;
    }
    
    /**
@@ -84,7 +146,17 @@ public abstract class Node {
     */
    public Date getLastModificationDate()
    {
-       return this.lastModificationDate;
+       return new Date(this.lastModificationTime);
+   }
+   
+   /**
+    * Obtains the last modification time of the node.
+    * 
+    * @return The modification time in milliseconds since the epoch.
+    */
+   public long getLastModificationTime()
+   {
+       return this.lastModificationTime;
    }
    
    /**
@@ -95,7 +167,8 @@ public abstract class Node {
    public void setName(String Name)
    {
        this.name = Name;
-       this.lastModificationDate = new Date();
+       this.lastModificationTime = System.currentTimeMillis();
+       changed();
    }
 
    /**
@@ -103,9 +176,198 @@ public abstract class Node {
     * 
     * @param sectors The sectors.
     */
-    public void setSectors(List<Sector> sectors) {
+    public void setSectors(IntList sectors) {
         this.sectors = sectors;
-        this.lastModificationDate = new Date();
+        this.lastModificationTime = System.currentTimeMillis();
+        changed();
+    }
+
+   /**
+    * Obtains the logical size of the file, holes included.
+    * 
+    * @return The size.
+    */
+    public long getSize() {
+        return size;
+    }
+
+   /**
+    * Set the logical size of the file.
+    * 
+    * @param size The size.
+    */
+    public void setSize(long size) {
+        this.size = size;
+        changed();
+    }
+
+   /**
+    * Obtains the pool of the disk where the sectors of the file are allocated.
+    * 
+    * @return The pool index.
+    */
+    public int getPool() {
+        return pool;
+    }
+
+   /**
+    * Set the pool of the disk where the sectors of the file are allocated.
+    * 
+    * @param pool The pool index.
+    */
+    public void setPool(int pool) {
+        this.pool = pool;
+    }
+
+   /**
+    * Check if the file has holes, ranges of zeros without sectors.
+    * 
+    * @return true if any sector of the file is a hole.
+    */
+    public boolean isSparse() {
+        return sectors.indexOf(-1) != -1;
+    }
+
+   /**
+    * Obtains the amount of sectors reserved for the file.
+    * A file keeps at least this amount of sectors even if its content is smaller.
+    * 
+    * @return The reserved sectors.
+    */
+    public int getReservedSectors() {
+        return reservedSectors;
+    }
+
+   /**
+    * Set the amount of sectors reserved for the file.
+    * 
+    * @param reservedSectors The reserved sectors.
+    */
+    public void setReservedSectors(int reservedSectors) {
+        this.reservedSectors = reservedSectors;
+    }
+
+   /**
+    * Obtains the content stored inline in the node.
+    * 
+    * @return The content, null if the content is stored in sectors.
+    */
+    public String getInlineContent() {
+        return inlineContent;
+    }
+
+   /**
+    * Store the content inline in the node.
+    * 
+    * @param inlineContent The content, null to store the content in sectors.
+    */
+    public void setInlineContent(String inlineContent) {
+        this.inlineContent = inlineContent;
+    }
+
+   /**
+    * Obtains the shared sector that holds the last partial sector of the file.
+    * 
+    * @return The tail sector, -1 if the file has no packed tail.
+    */
+    public int getTailSector() {
+        return tailSector;
+    }
+
+   /**
+    * Obtains the position of the tail in the tail sector.
+    * 
+    * @return The offset.
+    */
+    public int getTailOffset() {
+        return tailOffset;
+    }
+
+   /**
+    * Obtains the length of the tail.
+    * 
+    * @return The length.
+    */
+    public int getTailLength() {
+        return tailLength;
+    }
+
+   /**
+    * Set the location of the packed tail of the file.
+    * 
+    * @param sector The tail sector, -1 if the file has no packed tail.
+    * @param offset The position of the tail in the sector.
+    * @param length The length of the tail.
+    */
+    public void setTail(int sector, int offset, int length) {
+        this.tailSector = sector;
+        this.tailOffset = offset;
+        this.tailLength = length;
+    }
+
+   /**
+    * Obtains the index of the compressed chunks of the file.
+    * 
+    * @return The position of each chunk in the stored content, null if the file is not compressed.
+    */
+    public IntList getChunks() {
+        return chunks;
+    }
+
+   /**
+    * Obtains the length of the stored content, compressed or not.
+    * 
+    * @return The stored size.
+    */
+    public long getStoredSize() {
+        return chunks != null ? storedSize : size;
+    }
+
+   /**
+    * Set the index of the compressed chunks of the file.
+    * 
+    * @param chunks The position of each chunk in the stored content, null if the file is not compressed.
+    * @param storedSize The length of the compressed content.
+    */
+    public void setChunks(IntList chunks, long storedSize) {
+        this.chunks = chunks;
+        this.storedSize = storedSize;
+    }
+
+   /**
+    * Check if the content of the file is stored compressed.
+    * 
+    * @return true if the file is compressed.
+    */
+    public boolean isCompressed() {
+        return chunks != null;
+    }
+
+   /**
+    * Obtains the ratio between the size of the file and the size of its stored content.
+    * 
+    * @return The compression ratio, 1 if the file is not compressed.
+    */
+    public double getCompressionRatio() {
+        return chunks != null && storedSize > 0 ? (double) size / storedSize : 1;
+    }
+
+   /**
+    * Check if the node can't be changed, like the nodes of a snapshot.
+    * 
+    * @return true if the node is read-only.
+    */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+   /**
+    * Set if the node can't be changed.
+    * 
+    * @param readOnly The flag.
+    */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
     }
 
    /**
@@ -115,23 +377,155 @@ public abstract class Node {
     */
    public void setCreationDate(Date date)
    {
-       this.creationDate = date;
+       this.creationTime = date.getTime();
+   }
+   
+   /**
+    * Sets the creation time of a node.
+    * 
+    * @param time The creation time in milliseconds since the epoch.
+    */
+   public void setCreationTime(long time)
+   {
+       this.creationTime = time;
    }
    
+   /**
+    * Sets the last modification date of a node.
+    * 
+    * @param date The modification date.
+    */
    public void setLastModificationDate(Date date)
    {
-       this.lastModificationDate = date;
+       this.lastModificationTime = date.getTime();
+       changed();
+   }
+   
+   /**
+    * Sets the last modification time of a node.
+    * 
+    * @param time The modification time in milliseconds since the epoch.
+    */
+   public void setLastModificationTime(long time)
+   {
+       this.lastModificationTime = time;
+       changed();
    }
    
    /**
     * Adds a sector to the list of sectors of the file.
     * 
-    * @param sector The sector object to add.
+    * @param sector The index of the sector to add.
     */
-   public void addSector(Sector sector)
+   public void addSector(int sector)
    {
        this.sectors.add(sector);
-       this.lastModificationDate = new Date();
+       this.lastModificationTime = System.currentTimeMillis();
+       changed();
+   }
+   
+   /**
+    * Obtains the size of the files under the node, the size of the file itself for a file.
+    * 
+    * @return The total size.
+    */
+   public long getTotalSize()
+   {
+       return this.totalSize;
+   }
+   
+   /**
+    * Obtains the allocated sectors of the files under the node, the sectors of
+    * the file itself for a file. Holes and tails are not counted.
+    * 
+    * @return The total amount of sectors.
+    */
+   public long getTotalSectors()
+   {
+       return this.totalSectors;
+   }
+   
+   /**
+    * Keep the tree node where the node is stored, to update the sorted indexes
+    * and the totals of its directories when the node changes.
+    * 
+    * @param tree The tree node.
+    */
+   @Override
+   @SuppressWarnings("unchecked")
+   public void attach(Tree<?> tree)
+   {
+       this.tree = (Tree<Node>) tree;
+   }
+   
+   /**
+    * Add the totals of the node to its directories when it is linked to a
+    * parent, remove them when it is unlinked.
+    * 
+    * @param linked If the node was linked.
+    */
+   @Override
+   public void linked(boolean linked)
+   {
+       if (linked) {
+           this.linked = true;
+           addToParents(totalSize, totalSectors);
+       }
+       else {
+           addToParents(-totalSize, -totalSectors);
+           this.linked = false;
+       }
+   }
+   
+   /**
+    * Update the position of the node in the sorted indexes of its directory
+    * and the totals of its directories. Called by the setters, and by the
+    * disk after changing the sector list in place.
+    */
+   void changed()
+   {
+       if (!this.isDirectory)
+       {
+           // The list keeps the count of its holes, so this is O(1) whatever the file size.
+           long sectorCount = sectors.size() - sectors.negativeCount();
+           long sizeDelta = size - totalSize;
+           long sectorDelta = sectorCount - totalSectors;
+           if (sizeDelta != 0 || sectorDelta != 0)
+           {
+               totalSize = size;
+               totalSectors = sectorCount;
+               addToParents(sizeDelta, sectorDelta);
+           }
+       }
+       if (this.tree != null)
+       {
+           this.tree.update();
+       }
+   }
+   
+   /**
+    * Add amounts to the totals of the directories that contain the node,
+    * up to the root or to the first directory that is not linked.
+    * 
+    * @param size The amount of characters.
+    * @param sectorCount The amount of sectors.
+    */
+   private void addToParents(long size, long sectorCount)
+   {
+       if (!this.linked || this.tree == null)
+       {
+           return;
+       }
+       for (Tree<Node> parent = tree.parent(); parent != null; parent = parent.parent())
+       {
+           Node directory = parent.getData();
+           directory.totalSize += size;
+           directory.totalSectors += sectorCount;
+           if (!directory.linked)
+           {
+               break;
+           }
+       }
    }
 
    /**
@@ -171,44 +565,33 @@ public abstract class Node {
 
     @Override
     public int hashCode() {
-        int hash = 3;
-        hash = 29 * hash + Objects.hashCode(this.name);
-        hash = 29 * hash + (this.isDirectory ? 1 : 0);
-        hash = 29 * hash + Objects.hashCode(this.creationDate);
-        hash = 29 * hash + Objects.hashCode(this.lastModificationDate);
-        return hash;
+        return inode != 0 ? Long.hashCode(inode) : System.identityHashCode(this);
     }
 
     @Override
     public boolean equals(Object obj) {
-        if (obj == null) {
-            return false;
+        if (this == obj) {
+            return true;
         }
-        if (getClass() != obj.getClass()) {
+        if (obj == null || getClass() != obj.getClass()) {
             return false;
         }
         final Node other = (Node) obj;
-        if (!Objects.equals(this.name, other.name)) {
-            return false;
-        }
-        if (this.isDirectory != other.isDirectory) {
-            return false;
-        }
-        if (!Objects.equals(this.creationDate, other.creationDate)) {
-            return false;
-        }
-        return Objects.equals(this.lastModificationDate, other.lastModificationDate);
+        return inode != 0 && inode == other.inode;
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
         SimpleDateFormat sdf = new SimpleDateFormat("MMM d k:m");
-        sb.append(sdf.format(this.lastModificationDate)).append(" ");
+        sb.append(sdf.format(getLastModificationDate())).append(" ");
         sb.append(this.name);
         if (this.isDirectory) {
             sb.append("/");
         }
+        if (isCompressed()) {
+            sb.append(String.format(" (%.2fx)", getCompressionRatio()));
+        }
         return sb.toString();
     }
 
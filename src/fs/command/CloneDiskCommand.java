@@ -0,0 +1,47 @@
+package fs.command;
+
+import fs.App;
+import fs.Disk;
+import java.io.IOException;
+
+/**
+ *
+ * @author José Andrés García Sáenz <jags9415@gmail.com>
+ */
+public class CloneDiskCommand extends Command {
+
+    public static final String COMMAND = "clone";
+    
+    @Override
+    public void execute(String[] args) {
+        if (args.length != 2) {
+            reportSyntaxError();
+            return;
+        }
+        
+        App app = App.getInstance();
+        
+        try {
+            app.setDisk(new Disk(args[1], app.getDisk()));
+        }
+        catch (IOException ex) {
+            reportError(ex);
+        }
+    }
+
+    @Override
+    protected String getName() {
+        return CloneDiskCommand.COMMAND;
+    }
+
+    @Override
+    protected String getDescription() {
+        return "Create a thin clone of the disk and use it. The current disk becomes its read-only base.";
+    }
+
+    @Override
+    protected String getSyntax() {
+        return getName() + " IMAGE";
+    }
+    
+}
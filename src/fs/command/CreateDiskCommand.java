@@ -2,6 +2,8 @@ package fs.command;
 
 import fs.App;
 import fs.Disk;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  *
@@ -14,7 +16,7 @@ public class CreateDiskCommand extends Command {
 
     @Override
     public void execute(String[] args) {
-        if ( args.length != 3) {
+        if (args.length < 3) {
             reportSyntaxError();
             return;
         }
@@ -22,8 +24,72 @@ public class CreateDiskCommand extends Command {
         {
             int sectorsQuantity = Integer.parseInt(args[1]);
             int sectorSize = Integer.parseInt(args[2]);
+            boolean delayed = false;
+            boolean tail = false;
+            boolean dedup = false;
+            boolean compress = false;
+            int inline = 0;
+            List<String> pools = new ArrayList<>();
+            
+            for (int i = 3; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-d":
+                    case "--delayed":
+                        delayed = true;
+                        break;
+                    case "-t":
+                    case "--tail":
+                        tail = true;
+                        break;
+                    case "-u":
+                    case "--dedup":
+                        dedup = true;
+                        break;
+                    case "-z":
+                    case "--compress":
+                        compress = true;
+                        break;
+                    case "-i":
+                    case "--inline":
+                        if (++i == args.length) {
+                            reportSyntaxError();
+                            return;
+                        }
+                        inline = Integer.parseInt(args[i]);
+                        break;
+                    case "-p":
+                    case "--pool":
+                        if (++i == args.length || !args[i].matches("\\d+:\\d+")) {
+                            reportSyntaxError();
+                            return;
+                        }
+                        pools.add(args[i]);
+                        break;
+                    default:
+                        reportSyntaxError();
+                        return;
+                }
+            }
+            
             App app = App.getInstance();
-            Disk disk = new Disk("disk.txt", sectorsQuantity, sectorSize);
+            int[] amounts = new int[pools.size() + 1];
+            int[] sizes = new int[pools.size() + 1];
+            amounts[0] = sectorsQuantity;
+            sizes[0] = sectorSize;
+            for (int i = 0; i < pools.size(); i++) {
+                String[] pool = pools.get(i).split(":");
+                amounts[i + 1] = Integer.parseInt(pool[0]);
+                sizes[i + 1] = Integer.parseInt(pool[1]);
+            }
+            
+            // The old disk may use the same image, its channel is closed before the image is created again.
+            app.getDisk().close();
+            Disk disk = new Disk("disk.txt", amounts, sizes);
+            disk.setDelayedAllocation(delayed);
+            disk.setTailPacking(tail);
+            disk.setInlineThreshold(inline);
+            disk.setDeduplication(dedup);
+            disk.setCompression(compress);
             app.setDisk(disk);
         }
         catch (Exception ex)
@@ -45,7 +111,7 @@ public class CreateDiskCommand extends Command {
 
     @Override
     protected String getSyntax() {
-        return getName() + " SECTORS SECTOR_SIZE";
+        return getName() + " SECTORS SECTOR_SIZE <-d | --delayed> <-t | --tail> <-u | --dedup> <-z | --compress> <-i | --inline SIZE> <-p | --pool SECTORS:SIZE>...";
     }
     
 }
@@ -0,0 +1,58 @@
+package fs.command;
+
+import fs.App;
+import fs.Disk;
+
+/**
+ *
+ * @author José Andrés García Sáenz <jags9415@gmail.com>
+ */
+public class DeduplicationCommand extends Command {
+
+    public static final String COMMAND = "dedup";
+    
+    @Override
+    public void execute(String[] args) {
+        if (args.length > 2) {
+            reportSyntaxError();
+            return;
+        }
+        
+        App app = App.getInstance();
+        Disk disk = app.getDisk();
+        
+        if (args.length == 2) {
+            switch (args[1]) {
+                case "on":
+                    disk.setDeduplication(true);
+                    break;
+                case "off":
+                    disk.setDeduplication(false);
+                    break;
+                default:
+                    reportSyntaxError();
+            }
+            return;
+        }
+        
+        System.out.println("Deduplication: " + (disk.isDeduplication() ? "on" : "off"));
+        System.out.println("Used sectors: " + disk.getUsedSectors());
+        System.out.format("Ratio: %.2f\n", disk.getDeduplicationRatio());
+    }
+
+    @Override
+    protected String getName() {
+        return DeduplicationCommand.COMMAND;
+    }
+
+    @Override
+    protected String getDescription() {
+        return "Enable or disable the deduplication of sectors, without arguments show the dedup ratio.";
+    }
+
+    @Override
+    protected String getSyntax() {
+        return getName() + " <on | off>";
+    }
+    
+}
@@ -0,0 +1,52 @@
+package fs.command;
+
+import fs.App;
+import fs.Disk;
+import java.io.IOException;
+
+/**
+ *
+ * @author José Andrés García Sáenz <jags9415@gmail.com>
+ */
+public class DiskFreeCommand extends Command {
+
+    public static final String COMMAND = "df";
+    
+    @Override
+    public void execute(String[] args) {
+        if (args.length > 1) {
+            reportSyntaxError();
+            return;
+        }
+        
+        App app = App.getInstance();
+        Disk disk = app.getDisk();
+        int used = disk.getUsedSectors();
+        
+        try {
+            System.out.println("Sectors: " + disk.getSectorAmount());
+            System.out.println("Used sectors: " + used);
+            System.out.println("Free sectors: " + (disk.getSectorAmount() - used));
+            System.out.println("Files size: " + disk.getTotalSize("/"));
+        }
+        catch (IOException ex) {
+            reportError(ex);
+        }
+    }
+
+    @Override
+    protected String getName() {
+        return COMMAND;
+    }
+
+    @Override
+    protected String getDescription() {
+        return "Show the used and free sectors of the disk.";
+    }
+
+    @Override
+    protected String getSyntax() {
+        return getName();
+    }
+    
+}
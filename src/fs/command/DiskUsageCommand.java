@@ -0,0 +1,76 @@
+package fs.command;
+
+import fs.App;
+import fs.Disk;
+import fs.Node;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ *
+ * @author José Andrés García Sáenz <jags9415@gmail.com>
+ */
+public class DiskUsageCommand extends Command {
+
+    public static final String COMMAND = "du";
+    
+    @Override
+    public void execute(String[] args) {
+        App app = App.getInstance();
+        Disk disk = app.getDisk();
+        String path;
+        
+        switch (args.length) {
+            case 1:
+                path = disk.getCurrentDirectory();
+                break;
+            case 2:
+                path = args[1];
+                break;
+            default:
+                reportSyntaxError();
+                return;
+        }
+        
+        try {
+            if (disk.isDirectory(path)) {
+                Iterator<Node> files = disk.listFiles(path, null);
+                while (files.hasNext()) {
+                    Node file = files.next();
+                    print(file.getTotalSize(), file.getTotalSectors(), file.getName() + (file.isDirectory() ? "/" : ""));
+                }
+            }
+            print(disk.getTotalSize(path), disk.getTotalSectors(path), path);
+        }
+        catch (IOException ex) {
+            reportError(ex);
+        }
+    }
+    
+    /**
+     * Print the usage of a file.
+     * 
+     * @param size The total size.
+     * @param sectors The total amount of sectors.
+     * @param name The name of the file.
+     */
+    private void print(long size, long sectors, String name) {
+        System.out.format("%10d %8d %s\n", size, sectors, name);
+    }
+
+    @Override
+    protected String getName() {
+        return COMMAND;
+    }
+
+    @Override
+    protected String getDescription() {
+        return "Show the size and the sectors of a file or of the files in a directory.";
+    }
+
+    @Override
+    protected String getSyntax() {
+        return getName() + " <PATH>";
+    }
+    
+}
@@ -1,5 +1,8 @@
 package fs.command;
 
+import fs.App;
+import java.io.IOException;
+
 /**
  *
  * @author José Andrés García Sáenz <jags9415@gmail.com>
@@ -10,6 +13,13 @@ public class ExitCommand extends Command {
     
     @Override
     public void execute(String[] args) {
+         try {
+             App.getInstance().getDisk().flush();
+             App.getInstance().getDisk().close();
+         }
+         catch (IOException ex) {
+             reportError(ex);
+         }
          System.exit(0);
     }
 
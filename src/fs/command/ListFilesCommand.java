@@ -4,7 +4,7 @@ import fs.App;
 import fs.Disk;
 import fs.Node;
 import java.io.IOException;
-import java.util.List;
+import java.util.Iterator;
 
 /**
  *
@@ -18,26 +18,73 @@ public class ListFilesCommand extends Command {
     public void execute(String[] args) {
         App app = App.getInstance();
         Disk disk = app.getDisk();
-        String directory;
+        String directory = null;
+        String after = null;
+        String sort = null;
+        boolean descending = false;
+        int limit = Integer.MAX_VALUE;
         
-        switch (args.length) {
-            case 1:
-                directory = disk.getCurrentDirectory();
-                break;
-            case 2:
-                directory = args[1];
-                break;
-            default:
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-n":
+                    case "--limit":
+                        if (++i == args.length) {
+                            reportSyntaxError();
+                            return;
+                        }
+                        limit = Integer.parseInt(args[i]);
+                        break;
+                    case "-a":
+                    case "--after":
+                        if (++i == args.length) {
+                            reportSyntaxError();
+                            return;
+                        }
+                        after = args[i];
+                        break;
+                    case "-r":
+                    case "--reverse":
+                        descending = true;
+                        break;
+                    case "--sort=" + Disk.SORT_NAME:
+                        sort = Disk.SORT_NAME;
+                        break;
+                    case "--sort=" + Disk.SORT_MTIME:
+                        sort = Disk.SORT_MTIME;
+                        break;
+                    case "--sort=" + Disk.SORT_SIZE:
+                        sort = Disk.SORT_SIZE;
+                        break;
+                    default:
+                        if (directory != null) {
+                            reportSyntaxError();
+                            return;
+                        }
+                        directory = args[i];
+                }
+            }
+            if (limit < 0 || (descending && sort == null)) {
                 reportSyntaxError();
                 return;
-        }
-        
-        try {
-            List<Node> files = disk.getFiles(directory);
-            for (Node file : files) {
-                System.out.println(file);
+            }
+            if (directory == null) {
+                directory = disk.getCurrentDirectory();
+            }
+            
+            Iterator<Node> files = disk.listFiles(directory, after, sort, descending);
+            Node last = null;
+            for (int count = 0; count < limit && files.hasNext(); count++) {
+                last = files.next();
+                System.out.println(last);
+            }
+            if (last != null && files.hasNext()) {
+                System.out.println("... more entries, continue with --after " + last.getName());
             }
         } 
+        catch (NumberFormatException ex) {
+            reportSyntaxError();
+        }
         catch (IOException ex) {
             reportError(ex);
         }
@@ -45,12 +92,12 @@ public class ListFilesCommand extends Command {
 
     @Override
     protected String getSyntax() {
-        return getName() + " <DIRECTORY>";
+        return getName() + " <DIRECTORY> <-n | --limit N> <-a | --after NAME> <--sort=name | --sort=mtime | --sort=size> <-r | --reverse>";
     }
 
     @Override
     protected String getDescription() {
-        return "List the files in a directory.";
+        return "List the files in a directory, sorted or in creation order, a page at a time with a limit.";
     }
 
     @Override
@@ -0,0 +1,58 @@
+package fs.command;
+
+import fs.App;
+import fs.Disk;
+import java.io.IOException;
+
+/**
+ *
+ * @author José Andrés García Sáenz <jags9415@gmail.com>
+ */
+public class PreallocateCommand extends Command {
+
+    public static final String COMMAND = "prealloc";
+    
+    @Override
+    public void execute(String[] args) {
+        if (args.length != 3) {
+            reportSyntaxError();
+            return;
+        }
+        
+        App app = App.getInstance();
+        Disk disk = app.getDisk();
+        String path = args[1];
+        int bytes;
+        
+        try {
+            bytes = Integer.parseInt(args[2]);
+        }
+        catch (NumberFormatException ex) {
+            reportError("Invalid size: " + args[2]);
+            return;
+        }
+        
+        try {
+            disk.preallocate(path, bytes);
+        } 
+        catch (IOException ex) {
+            reportError(ex);
+        }
+    }
+
+    @Override
+    protected String getName() {
+        return PreallocateCommand.COMMAND;
+    }
+
+    @Override
+    protected String getDescription() {
+        return "Reserve a contiguous region of the disk for a file.";
+    }
+
+    @Override
+    protected String getSyntax() {
+        return getName() + " FILE SIZE";
+    }
+    
+}
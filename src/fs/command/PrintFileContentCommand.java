@@ -4,6 +4,8 @@ import fs.App;
 import fs.Disk;
 import fs.util.StringUtils;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 
 /**
  *
@@ -13,9 +15,14 @@ public class PrintFileContentCommand extends Command {
 
     public static final String COMMAND = "cat";
     
+    /**
+     * The amount of characters printed in each line.
+     */
+    private static final int LINE = 80;
+    
     @Override
     public void execute(String[] args) {
-        if (args.length != 2) {
+        if (args.length < 2) {
             reportSyntaxError();
             return;
         }
@@ -25,17 +32,87 @@ public class PrintFileContentCommand extends Command {
         String file = args[1];
         
         try {
-            String content = disk.getFileContent(file);
-            int block = 80;
-            int ceil = (int) Math.ceil((double) content.length() / block);
-            for (int i = 0; i < ceil; i++) {
-                System.out.println(StringUtils.substring(content, i*block, (i+1)*block));
+            if (args.length == 2) {
+                print(disk, file);
+                return;
+            }
+            
+            long offset;
+            int length;
+            switch (args[2]) {
+                case "-h":
+                case "--head":
+                    if (args.length != 4) {
+                        reportSyntaxError();
+                        return;
+                    }
+                    offset = 0;
+                    length = Integer.parseInt(args[3]);
+                    break;
+                case "-t":
+                case "--tail":
+                    if (args.length != 4) {
+                        reportSyntaxError();
+                        return;
+                    }
+                    length = Integer.parseInt(args[3]);
+                    offset = Math.max(0, disk.getFileSize(file) - length);
+                    break;
+                case "-r":
+                case "--range":
+                    if (args.length != 5) {
+                        reportSyntaxError();
+                        return;
+                    }
+                    offset = Long.parseLong(args[3]);
+                    length = Integer.parseInt(args[4]);
+                    break;
+                default:
+                    reportSyntaxError();
+                    return;
             }
+            print(disk.read(file, offset, length));
         }
-        catch (IOException ex) {
+        catch (IOException | IllegalArgumentException ex) {
             reportError(ex);
         }
     }
+    
+    /**
+     * Print the whole content of a file streaming it from the disk.
+     * 
+     * @param disk The disk.
+     * @param file The path of the file.
+     * @throws IOException If an I/O error occurs.
+     */
+    private void print(Disk disk, String file) throws IOException {
+        try (Reader reader = new InputStreamReader(disk.openInputStream(file))) {
+            char[] line = new char[LINE];
+            int length = 0;
+            int read;
+            while ((read = reader.read(line, length, line.length - length)) != -1) {
+                length += read;
+                if (length == line.length) {
+                    System.out.println(line);
+                    length = 0;
+                }
+            }
+            if (length > 0) {
+                System.out.println(new String(line, 0, length));
+            }
+        }
+    }
+    
+    /**
+     * Print a content in lines of fixed length.
+     * 
+     * @param content The content.
+     */
+    private void print(String content) {
+        for (int i = 0; i < content.length(); i += LINE) {
+            System.out.println(StringUtils.substring(content, i, i + LINE));
+        }
+    }
 
     @Override
     protected String getName() {
@@ -49,7 +126,7 @@ public class PrintFileContentCommand extends Command {
 
     @Override
     protected String getSyntax() {
-        return getName() + " FILE";
+        return getName() + " FILE <-h | --head N | -t | --tail N | -r | --range OFFSET LENGTH>";
     }
     
 }
@@ -0,0 +1,82 @@
+package fs.command;
+
+import fs.App;
+import fs.Disk;
+import java.io.IOException;
+
+/**
+ *
+ * @author José Andrés García Sáenz <jags9415@gmail.com>
+ */
+public class SnapshotCommand extends Command {
+
+    public static final String COMMAND = "snapshot";
+    
+    @Override
+    public void execute(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            reportSyntaxError();
+            return;
+        }
+        
+        App app = App.getInstance();
+        Disk disk = app.getDisk();
+        
+        try {
+            switch (args[1]) {
+                case "-l":
+                case "--list":
+                    if (args.length != 2) {
+                        reportSyntaxError();
+                        return;
+                    }
+                    for (String name : disk.getSnapshots()) {
+                        System.out.println(name);
+                    }
+                    break;
+                case "-r":
+                case "--rollback":
+                    if (args.length != 3) {
+                        reportSyntaxError();
+                        return;
+                    }
+                    disk.rollback(args[2]);
+                    break;
+                case "-d":
+                case "--delete":
+                    if (args.length != 3) {
+                        reportSyntaxError();
+                        return;
+                    }
+                    disk.deleteSnapshot(args[2]);
+                    break;
+                default:
+                    if (args.length != 2) {
+                        reportSyntaxError();
+                        return;
+                    }
+                    disk.snapshot(args[1]);
+                    break;
+            }
+        }
+        catch (IOException ex) {
+            reportError(ex);
+        }
+    }
+
+    @Override
+    protected String getName() {
+        return SnapshotCommand.COMMAND;
+    }
+
+    @Override
+    protected String getDescription() {
+        return "Take, list, restore or delete snapshots. Snapshots are browsed in /" + Disk.SNAPSHOTS + ".";
+    }
+
+    @Override
+    protected String getSyntax() {
+        return getName() + " <NAME | -l | --list | -r | --rollback NAME | -d | --delete NAME>";
+    }
+    
+}
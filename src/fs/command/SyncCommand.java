@@ -0,0 +1,48 @@
+package fs.command;
+
+import fs.App;
+import fs.Disk;
+import java.io.IOException;
+
+/**
+ *
+ * @author José Andrés García Sáenz <jags9415@gmail.com>
+ */
+public class SyncCommand extends Command {
+
+    public static final String COMMAND = "sync";
+    
+    @Override
+    public void execute(String[] args) {
+        if (args.length != 1) {
+            reportSyntaxError();
+            return;
+        }
+        
+        App app = App.getInstance();
+        Disk disk = app.getDisk();
+        
+        try {
+            disk.flush();
+        }
+        catch (IOException ex) {
+            reportError(ex);
+        }
+    }
+
+    @Override
+    protected String getName() {
+        return SyncCommand.COMMAND;
+    }
+
+    @Override
+    protected String getDescription() {
+        return "Write the buffered files to the disk.";
+    }
+
+    @Override
+    protected String getSyntax() {
+        return getName();
+    }
+    
+}
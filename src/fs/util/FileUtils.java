@@ -29,18 +29,11 @@ public class FileUtils {
      * @return true if the path is valid.
      */
     public static boolean isValidPath(String path) {
-        String[] array = path.split("/");
-        for (String curr : array) {
-            if (!isValidName(curr)) {
-                return false;
-            }
-        }
-        return true;
+        return new ParsedPath(path).isValid();
     }
 
     public static String getFileName(String path) {
-        String[] array = path.split("/");
-        return array[array.length - 1];
+        return new ParsedPath(path).getFileName();
     }
 
     public static String getDirectory(String path) {
@@ -0,0 +1,245 @@
+package fs.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive integers.
+ *
+ * @author José Andrés García Sáenz <jags9415@gmail.com>
+ */
+public class IntList {
+
+    /**
+     * The stored values.
+     */
+    private int[] values;
+
+    /**
+     * The amount of stored values.
+     */
+    private int size;
+
+    /**
+     * The amount of negative values, like the holes of a sector list.
+     */
+    private int negatives;
+
+    /**
+     * Create a new empty list.
+     */
+    public IntList() {
+        this(8);
+    }
+
+    /**
+     * Create a new empty list.
+     *
+     * @param capacity The initial capacity.
+     */
+    public IntList(int capacity) {
+        this.values = new int[Math.max(1, capacity)];
+        this.size = 0;
+        this.negatives = 0;
+    }
+
+    /**
+     * Create a copy of a list.
+     *
+     * @param list The list to copy.
+     */
+    public IntList(IntList list) {
+        this.values = Arrays.copyOf(list.values, Math.max(1, list.size));
+        this.size = list.size;
+        this.negatives = list.negatives;
+    }
+
+    /**
+     * Add a value at the end of the list.
+     *
+     * @param value The value.
+     */
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+        if (value < 0) {
+            negatives++;
+        }
+    }
+
+    /**
+     * Add all the values of other list at the end of this list.
+     *
+     * @param list The list.
+     */
+    public void addAll(IntList list) {
+        if (size + list.size > values.length) {
+            values = Arrays.copyOf(values, Math.max(size * 2, size + list.size));
+        }
+        System.arraycopy(list.values, 0, values, size, list.size);
+        size += list.size;
+        negatives += list.negatives;
+    }
+
+    /**
+     * Get a value.
+     *
+     * @param index The position of the value.
+     * @return The value.
+     */
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return values[index];
+    }
+
+    /**
+     * Replace a value.
+     *
+     * @param index The position of the value.
+     * @param value The new value.
+     */
+    public void set(int index, int value) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        if (values[index] < 0) {
+            negatives--;
+        }
+        if (value < 0) {
+            negatives++;
+        }
+        values[index] = value;
+    }
+
+    /**
+     * Get the last value.
+     *
+     * @return The value.
+     */
+    public int last() {
+        return get(size - 1);
+    }
+
+    /**
+     * Remove the last value.
+     *
+     * @return The removed value.
+     */
+    public int removeLast() {
+        int value = last();
+        size--;
+        if (value < 0) {
+            negatives--;
+        }
+        return value;
+    }
+
+    /**
+     * Remove the first occurrence of a value.
+     *
+     * @param value The value.
+     * @return true if the value was in the list.
+     */
+    public boolean removeValue(int value) {
+        int index = indexOf(value);
+        if (index == -1) {
+            return false;
+        }
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        if (value < 0) {
+            negatives--;
+        }
+        return true;
+    }
+
+    /**
+     * Get the position of the first occurrence of a value.
+     *
+     * @param value The value.
+     * @return The position, -1 if the value is not in the list.
+     */
+    public int indexOf(int value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the amount of negative values, kept updated by every change of the list.
+     *
+     * @return The amount of negative values.
+     */
+    public int negativeCount() {
+        return negatives;
+    }
+
+    /**
+     * Copy a range of the list.
+     *
+     * @param from The first position, inclusive.
+     * @param to The last position, exclusive.
+     * @return The new list.
+     */
+    public IntList subList(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("From: " + from + ", To: " + to + ", Size: " + size);
+        }
+        IntList list = new IntList(to - from);
+        System.arraycopy(values, from, list.values, 0, to - from);
+        list.size = to - from;
+        for (int i = 0; i < list.size; i++) {
+            if (list.values[i] < 0) {
+                list.negatives++;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get the amount of values in the list.
+     *
+     * @return The size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if the list is empty.
+     *
+     * @return true if the list has no values.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all the values.
+     */
+    public void clear() {
+        size = 0;
+        negatives = 0;
+    }
+
+    /**
+     * Copy the values to an array.
+     *
+     * @return The array.
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+}
@@ -0,0 +1,41 @@
+package fs.util;
+
+/**
+ * Data identified by a name, like the entries of a directory.
+ *
+ * @author José Andrés García Sáenz <jags9415@gmail.com>
+ */
+public interface Named {
+
+    /**
+     * Get the name.
+     *
+     * @return The name.
+     */
+    String getName();
+
+    /**
+     * Change the name.
+     *
+     * @param name The new name.
+     */
+    void setName(String name);
+
+    /**
+     * Receive the tree node where the data is stored, so the data can notify
+     * the tree of its changes.
+     *
+     * @param tree The tree node.
+     */
+    default void attach(Tree<?> tree) {
+    }
+
+    /**
+     * Receive the changes of the link between the tree node of the data and its parent.
+     *
+     * @param linked true when the tree node was added to a parent, false when it was removed.
+     */
+    default void linked(boolean linked) {
+    }
+
+}
@@ -0,0 +1,235 @@
+package fs.util;
+
+/**
+ * A path of the virtual file system parsed once into the bounds of its names.
+ * The names are normalized: empty names and '.' are skipped and '..' removes
+ * the previous name. Only the bounds are stored, the names are created when
+ * they are requested.
+ *
+ * @author José Andrés García Sáenz <jags9415@gmail.com>
+ */
+public class ParsedPath {
+
+    /**
+     * The path as it was given.
+     */
+    private final String path;
+
+    /**
+     * Flag indicating if the path starts in the root.
+     */
+    private final boolean absolute;
+
+    /**
+     * Start and end of each name in the path, two positions per name.
+     */
+    private final int[] bounds;
+
+    /**
+     * The amount of names after the normalization.
+     */
+    private int size;
+
+    /**
+     * Flag indicating if the path is a valid path to create a file.
+     */
+    private boolean valid;
+
+    /**
+     * Flag indicating if the given path is already normalized.
+     */
+    private boolean normal;
+
+    /**
+     * The names, created when they are requested.
+     */
+    private String[] names;
+
+    /**
+     * The normalized path, created when it is requested.
+     */
+    private String normalized;
+
+    /**
+     * Parse a path.
+     *
+     * @param path The path.
+     */
+    public ParsedPath(String path) {
+        this.path = path;
+        this.absolute = path.startsWith("/");
+        this.bounds = new int[path.length() + 2];
+        parse();
+    }
+
+    /**
+     * Split the path into names, normalizing it.
+     */
+    private void parse() {
+        int length = path.length();
+        boolean empty = false;
+        int start = absolute ? 1 : 0;
+
+        valid = length > 0 && path.indexOf('\\') == -1;
+        normal = !(length > 1 && path.charAt(length - 1) == '/');
+
+        while (start <= length) {
+            int end = path.indexOf('/', start);
+            if (end == -1) {
+                end = length;
+            }
+
+            if (end == start) {
+                // An empty name is only valid at the end, like in "dir/".
+                empty = true;
+                normal &= end == length;
+            }
+            else {
+                valid &= !empty;
+                if (end - start == 1 && path.charAt(start) == '.') {
+                    normal = false;
+                }
+                else if (end - start == 2 && path.startsWith("..", start)) {
+                    if (size > 0 && !isParentReference(size - 1)) {
+                        size--;
+                        normal = false;
+                    }
+                    else if (!absolute) {
+                        add(start, end);
+                    }
+                    else {
+                        normal = false;
+                    }
+                }
+                else {
+                    add(start, end);
+                }
+            }
+            start = end + 1;
+        }
+        // A leading slash is an empty first name.
+        valid &= !absolute || size == 0;
+    }
+
+    /**
+     * Add a name to the parsed names.
+     *
+     * @param start The start of the name, inclusive.
+     * @param end The end of the name, exclusive.
+     */
+    private void add(int start, int end) {
+        bounds[size * 2] = start;
+        bounds[size * 2 + 1] = end;
+        size++;
+    }
+
+    /**
+     * Check if the path starts in the root.
+     *
+     * @return true if the path is absolute.
+     */
+    public boolean isAbsolute() {
+        return absolute;
+    }
+
+    /**
+     * Check if the path is valid to create a file: it is relative and it has no empty names.
+     *
+     * @return true if the path is valid.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Get the amount of names of the normalized path.
+     *
+     * @return The amount of names.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get a name of the normalized path.
+     *
+     * @param index The position of the name.
+     * @return The name.
+     */
+    public String get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        if (names == null) {
+            names = new String[size];
+        }
+        if (names[index] == null) {
+            names[index] = path.substring(bounds[index * 2], bounds[index * 2 + 1]);
+        }
+        return names[index];
+    }
+
+    /**
+     * Check if a name of the normalized path is a reference to the parent directory.
+     * Only the leading names of a relative path can be.
+     *
+     * @param index The position of the name.
+     * @return true if the name is '..'.
+     */
+    public boolean isParentReference(int index) {
+        int start = bounds[index * 2];
+        return bounds[index * 2 + 1] - start == 2 && path.startsWith("..", start);
+    }
+
+    /**
+     * Check if a name of the normalized path is equal to a string, without creating the name.
+     *
+     * @param index The position of the name.
+     * @param name The string.
+     * @return true if the name is equal.
+     */
+    public boolean nameEquals(int index, String name) {
+        int start = bounds[index * 2];
+        return bounds[index * 2 + 1] - start == name.length() && path.startsWith(name, start);
+    }
+
+    /**
+     * Get the last name of the normalized path.
+     *
+     * @return The name, an empty string if the path has no names.
+     */
+    public String getFileName() {
+        return size > 0 ? get(size - 1) : "";
+    }
+
+    /**
+     * Get the normalized path. A path that is already normalized is returned as it is.
+     *
+     * @return The normalized path.
+     */
+    public String normalize() {
+        if (normal) {
+            return path;
+        }
+        if (normalized == null) {
+            StringBuilder builder = new StringBuilder(path.length());
+            for (int i = 0; i < size; i++) {
+                if (i > 0 || absolute) {
+                    builder.append('/');
+                }
+                builder.append(path, bounds[i * 2], bounds[i * 2 + 1]);
+            }
+            if (absolute && size == 0) {
+                builder.append('/');
+            }
+            normalized = builder.toString();
+        }
+        return normalized;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+}
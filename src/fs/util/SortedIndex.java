@@ -0,0 +1,174 @@
+package fs.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.ToLongFunction;
+
+/**
+ * The children of a tree ordered by a key of their data, then by name.
+ * The key of each child is kept in the index, so a child whose data changed
+ * is found by its old key and moved to its new position.
+ *
+ * @author José Andrés García Sáenz <jags9415@gmail.com>
+ * @param <T> Type of data stored in the tree.
+ */
+public class SortedIndex<T extends Named> {
+
+    /**
+     * The function that obtains the key of the data, null to order by name only.
+     */
+    private final ToLongFunction<T> key;
+
+    /**
+     * The children in order.
+     */
+    private final TreeSet<Entry<T>> entries;
+
+    /**
+     * The entry of each child.
+     */
+    private final Map<Tree<T>, Entry<T>> positions;
+
+    /**
+     * Create a new empty index.
+     *
+     * @param key The function that obtains the key of the data, null to order by name only.
+     */
+    public SortedIndex(ToLongFunction<T> key) {
+        this.key = key;
+        this.entries = new TreeSet<>();
+        this.positions = new HashMap<>();
+    }
+
+    /**
+     * Add a child.
+     *
+     * @param tree The child.
+     */
+    public void add(Tree<T> tree) {
+        Entry<T> entry = new Entry<>(key != null ? key.applyAsLong(tree.getData()) : 0, tree.getData().getName(), tree);
+        positions.put(tree, entry);
+        entries.add(entry);
+    }
+
+    /**
+     * Remove a child.
+     *
+     * @param tree The child.
+     */
+    public void remove(Tree<T> tree) {
+        Entry<T> entry = positions.remove(tree);
+        if (entry != null) {
+            entries.remove(entry);
+        }
+    }
+
+    /**
+     * Move a child to the position of the current key and name of its data.
+     * Nothing is done if the tree is not in the index.
+     *
+     * @param tree The child.
+     */
+    public void update(Tree<T> tree) {
+        Entry<T> entry = positions.get(tree);
+        T data = tree.getData();
+        if (entry == null || (entry.name.equals(data.getName())
+                && (key == null || entry.key == key.applyAsLong(data)))) {
+            return;
+        }
+        remove(tree);
+        add(tree);
+    }
+
+    /**
+     * Remove all children.
+     */
+    public void clear() {
+        entries.clear();
+        positions.clear();
+    }
+
+    /**
+     * Iterate the children in order. Each step takes O(log n), the first
+     * k children are obtained without visiting the rest.
+     *
+     * @param after The child before the first returned, null to start at the first child.
+     * @param descending If the children are returned from the biggest key.
+     * @return The iterator.
+     */
+    public Iterator<Tree<T>> iterator(Tree<T> after, boolean descending) {
+        NavigableSet<Entry<T>> view = descending ? entries.descendingSet() : entries;
+        Entry<T> entry = after != null ? positions.get(after) : null;
+        if (entry != null) {
+            view = view.tailSet(entry, false);
+        }
+        Iterator<Entry<T>> iterator = view.iterator();
+        return new Iterator<Tree<T>>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Tree<T> next() {
+                return iterator.next().tree;
+            }
+        };
+    }
+
+    /**
+     * Get the amount of children in the index.
+     *
+     * @return The size.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * A child with the key and name it had when it was indexed.
+     *
+     * @param <T> Type of data stored in the tree.
+     */
+    private static class Entry<T extends Named> implements Comparable<Entry<T>> {
+
+        /**
+         * The key of the data.
+         */
+        private final long key;
+
+        /**
+         * The name of the data, unique among siblings.
+         */
+        private final String name;
+
+        /**
+         * The child.
+         */
+        private final Tree<T> tree;
+
+        /**
+         * Create a new entry.
+         *
+         * @param key The key of the data.
+         * @param name The name of the data.
+         * @param tree The child.
+         */
+        Entry(long key, String name, Tree<T> tree) {
+            this.key = key;
+            this.name = name;
+            this.tree = tree;
+        }
+
+        @Override
+        public int compareTo(Entry<T> other) {
+            int result = Long.compare(key, other.key);
+            return result != 0 ? result : name.compareTo(other.name);
+        }
+
+    }
+
+}
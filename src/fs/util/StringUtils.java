@@ -21,6 +21,9 @@ public class StringUtils {
         if (endIndex > str.length()) {
             endIndex = str.length();
         }
+        if (beginIndex > endIndex) {
+            beginIndex = endIndex;
+        }
         return str.substring(beginIndex, endIndex);
     }
     
@@ -34,10 +37,15 @@ public class StringUtils {
      * @return The filled string.
      */
     public static String fill(String text, char padding, int size) {
+        if (text.length() >= size) {
+            return text;
+        }
+        StringBuilder result = new StringBuilder(size);
+        result.append(text);
         for (int i = text.length(); i < size; i++) {
-            text += padding;
+            result.append(padding);
         }
-        return text;
+        return result.toString();
     }
 
     /**
@@ -48,11 +56,11 @@ public class StringUtils {
      * @return The string.
      */
     public static String repeat(String text, int n) {
-        String result = "";
+        StringBuilder result = new StringBuilder(Math.max(0, text.length() * n));
         for (int i = 0; i < n; i++) {
-            result += text;
+            result.append(text);
         }
-        return result;
+        return result.toString();
     }
     
     /**
@@ -63,11 +71,9 @@ public class StringUtils {
      * @return The string.
      */
     public static String repeat(char text, int n) {
-        String result = "";
-        for (int i = 0; i < n; i++) {
-            result += text;
-        }
-        return result;
+        char[] result = new char[Math.max(0, n)];
+        java.util.Arrays.fill(result, text);
+        return new String(result);
     }
 
 }
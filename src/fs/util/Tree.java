@@ -1,15 +1,23 @@
 package fs.util;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
 
 /**
  * Represents a Tree data structure.
+ * The children are indexed by name, names are unique among siblings,
+ * and linked in insertion order so an iteration can resume after any child.
  * 
  * @author José Andrés García Sáenz <jags9415@gmail.com>
  * @param <T> Type of data to store.
  */
-public class Tree<T> {
+public class Tree<T extends Named> {
 
     /**
      * Data stored in this node of the tree.
@@ -22,9 +30,52 @@ public class Tree<T> {
     private Tree<T> parent;
     
     /**
-     * The children nodes.
+     * The children nodes indexed by name.
+     * Null until the first child is added, so leaves don't hold an empty map.
      */
-    private List<Tree<T>> children;
+    private Map<String, Tree<T>> children;
+    
+    /**
+     * The first child in insertion order.
+     */
+    private Tree<T> firstChild;
+    
+    /**
+     * The last child in insertion order.
+     */
+    private Tree<T> lastChild;
+    
+    /**
+     * The next sibling in insertion order.
+     */
+    private Tree<T> nextSibling;
+    
+    /**
+     * The previous sibling in insertion order.
+     */
+    private Tree<T> previousSibling;
+    
+    /**
+     * Position of this tree in the insertion order of its parent, it grows
+     * with every child added so a tree added again gets a new position.
+     */
+    private long order;
+    
+    /**
+     * Position of the next sibling when this tree was removed from its parent, -1 if it was the last.
+     */
+    private long successorOrder;
+    
+    /**
+     * Position given to the next child added.
+     */
+    private long nextOrder;
+    
+    /**
+     * The sorted indexes of the children by index name.
+     * Null until the first index is added.
+     */
+    private Map<String, SortedIndex<T>> indexes;
     
     /**
      * Flag indicating if this tree allows children nodes.
@@ -42,7 +93,9 @@ public class Tree<T> {
         this.data = data;
         this.parent = parent;
         this.allowsChildren = allowsChildren;
-        this.children = new ArrayList<>();
+        this.children = null;
+        this.indexes = null;
+        data.attach(this);
     }
     
     /**
@@ -58,13 +111,35 @@ public class Tree<T> {
      * Add a child tree.
      * 
      * @param tree The tree.
-     * @return If the tree change by this call.
+     * @return If the tree change by this call, false if there is a child with the same name.
      * @throws Exception If this tree do not allows children.
      */
     public boolean add(Tree<T> tree) throws Exception {
         if (this.allowsChildren) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            if (children.putIfAbsent(tree.getData().getName(), tree) != null) {
+                return false;
+            }
             tree.parent = this;
-            return children.add(tree);
+            tree.order = nextOrder++;
+            tree.previousSibling = lastChild;
+            tree.nextSibling = null;
+            if (lastChild != null) {
+                lastChild.nextSibling = tree;
+            }
+            else {
+                firstChild = tree;
+            }
+            lastChild = tree;
+            if (indexes != null) {
+                for (SortedIndex<T> index : indexes.values()) {
+                    index.add(tree);
+                }
+            }
+            tree.data.linked(true);
+            return true;
         }
         else {
             throw new Exception("This tree do not allow children");
@@ -102,19 +177,158 @@ public class Tree<T> {
      * @return true if the child is removed.
      */
     public boolean remove(T data) {
-        for (Tree<T> child : children) {
-            if (child.getData().equals(data)) {
-                return children.remove(child);
+        Tree<T> child = getChild(data.getName());
+        if (child != null && child.getData() == data) {
+            children.remove(data.getName());
+            unlink(child);
+            if (indexes != null) {
+                for (SortedIndex<T> index : indexes.values()) {
+                    index.remove(child);
+                }
             }
+            child.data.linked(false);
+            return true;
         }
         return false;
     }
     
+    /**
+     * Remove a child from the insertion order.
+     * The child keeps its next sibling and the position of it, so an iteration
+     * positioned on the child can go on while the sibling is not added again.
+     * 
+     * @param child The child.
+     */
+    private void unlink(Tree<T> child) {
+        child.successorOrder = child.nextSibling != null ? child.nextSibling.order : -1;
+        if (child.previousSibling != null) {
+            child.previousSibling.nextSibling = child.nextSibling;
+        }
+        else {
+            firstChild = child.nextSibling;
+        }
+        if (child.nextSibling != null) {
+            child.nextSibling.previousSibling = child.previousSibling;
+        }
+        else {
+            lastChild = child.previousSibling;
+        }
+        child.previousSibling = null;
+    }
+    
+    /**
+     * Get a child by name.
+     * 
+     * @param name The name of the child.
+     * @return The child, null if there is none with that name.
+     */
+    public Tree<T> getChild(String name) {
+        return children != null ? children.get(name) : null;
+    }
+    
+    /**
+     * Change the name of the data stored in this node, keeping the index of the parent updated.
+     * 
+     * @param name The new name.
+     * @return false if the parent has other child with the new name.
+     */
+    public boolean rename(String name) {
+        if (parent != null) {
+            Tree<T> other = parent.getChild(name);
+            if (other != null && other != this) {
+                return false;
+            }
+            parent.children.remove(data.getName());
+            parent.children.put(name, this);
+        }
+        data.setName(name);
+        return true;
+    }
+    
     /**
      * Remove all children.
      */
     public void clear() {
-        children.clear();
+        for (Tree<T> child : children()) {
+            child.successorOrder = child.nextSibling != null ? child.nextSibling.order : -1;
+            child.data.linked(false);
+        }
+        children = null;
+        firstChild = null;
+        lastChild = null;
+        if (indexes != null) {
+            for (SortedIndex<T> index : indexes.values()) {
+                index.clear();
+            }
+        }
+    }
+    
+    /**
+     * Keep the children ordered by a key of their data, then by name.
+     * The index is built once and then updated on every change of the children.
+     * 
+     * @param name The name of the index.
+     * @param key The function that obtains the key of the data, null to order by name only.
+     */
+    public void addIndex(String name, ToLongFunction<T> key) {
+        SortedIndex<T> index = new SortedIndex<>(key);
+        for (Tree<T> child : children()) {
+            index.add(child);
+        }
+        if (indexes == null) {
+            indexes = new HashMap<>();
+        }
+        indexes.put(name, index);
+    }
+    
+    /**
+     * Stop keeping a sorted index of the children.
+     * 
+     * @param name The name of the index.
+     */
+    public void removeIndex(String name) {
+        if (indexes != null) {
+            indexes.remove(name);
+        }
+    }
+    
+    /**
+     * Check if the children are kept in a sorted index.
+     * 
+     * @param name The name of the index.
+     * @return true if the index exists.
+     */
+    public boolean hasIndex(String name) {
+        return indexes != null && indexes.containsKey(name);
+    }
+    
+    /**
+     * Iterate the children in the order of a sorted index.
+     * 
+     * @param name The name of the index.
+     * @param after The name of the child before the first returned, null to start at the first child.
+     * @param descending If the children are returned in reverse order.
+     * @return The iterator, null if there is no index or no child with that name.
+     */
+    public Iterator<Tree<T>> sortedChildren(String name, String after, boolean descending) {
+        SortedIndex<T> index = indexes != null ? indexes.get(name) : null;
+        Tree<T> child = after != null ? getChild(after) : null;
+        if (index == null || (after != null && child == null)) {
+            return null;
+        }
+        return index.iterator(child, descending);
+    }
+    
+    /**
+     * Move this tree to the position of its data in the sorted indexes of its parent.
+     * Called when the data changes.
+     */
+    public void update() {
+        if (parent != null && parent.indexes != null) {
+            for (SortedIndex<T> index : parent.indexes.values()) {
+                index.update(this);
+            }
+        }
     }
     
     /**
@@ -133,15 +347,20 @@ public class Tree<T> {
      */
     public void setData(T data) {
         this.data = data;
+        data.attach(this);
+        update();
     }
     
     /**
      * Set the parent node.
      * 
      * @param parent The new parent. 
-     * @throws java.lang.Exception If the parent tree doesn't allow children.
+     * @throws java.lang.Exception If the parent tree doesn't allow children or has a child with the same name.
      */
     public void setParent(Tree<T> parent) throws Exception {
+        if (parent.getChild(data.getName()) != null) {
+            throw new Exception("\"" + data.getName() + "\" already exists.");
+        }
         this.parent.remove(data);
         parent.add(this);
     }
@@ -152,7 +371,7 @@ public class Tree<T> {
      * @return The amount of children nodes.
      */
     public int size() {
-        return children.size();
+        return children != null ? children.size() : 0;
     }
 
     /**
@@ -169,8 +388,36 @@ public class Tree<T> {
      * 
      * @return The children nodes. 
      */
-    public List<Tree<T>> children() {
-        return children;
+    public Collection<Tree<T>> children() {
+        if (children == null) {
+            return Collections.emptyList();
+        }
+        return new AbstractCollection<Tree<T>>() {
+            @Override
+            public Iterator<Tree<T>> iterator() {
+                return new ChildIterator(null);
+            }
+
+            @Override
+            public int size() {
+                return children != null ? children.size() : 0;
+            }
+        };
+    }
+    
+    /**
+     * Iterate the children that follow a child in insertion order.
+     * The iteration is lazy, it doesn't copy the children.
+     * 
+     * @param name The name of the child before the first returned, null to start at the first child.
+     * @return The iterator, null if there is no child with that name.
+     */
+    public Iterator<Tree<T>> childrenAfter(String name) {
+        if (name == null) {
+            return new ChildIterator(null);
+        }
+        Tree<T> child = getChild(name);
+        return child != null ? new ChildIterator(child) : null;
     }
 
     /**
@@ -189,7 +436,7 @@ public class Tree<T> {
      * @return If this node is a leaf node.
      */
     public boolean isLeaf() {
-        return children.isEmpty();
+        return size() == 0;
     }
 
     /**
@@ -209,7 +456,106 @@ public class Tree<T> {
      */
     public boolean hasChildren()
     {
-        return this.children.isEmpty();
+        return size() == 0;
+    }
+    
+    /**
+     * Check if a tree is a child of this tree.
+     * 
+     * @param tree The tree.
+     * @return true if the tree wasn't removed from this tree.
+     */
+    private boolean isChild(Tree<T> tree) {
+        return tree.parent == this && getChild(tree.data.getName()) == tree;
+    }
+    
+    /**
+     * Find the first child added after a position of the insertion order.
+     * The children are walked back from the last one, so only the children
+     * after the position are visited.
+     * 
+     * @param order The position.
+     * @return The child, null if there is none.
+     */
+    private Tree<T> childAfter(long order) {
+        Tree<T> found = null;
+        for (Tree<T> child = lastChild; child != null && child.order > order; child = child.previousSibling) {
+            found = child;
+        }
+        return found;
+    }
+    
+    /**
+     * Iterator over a run of siblings. The next child is taken from the last
+     * returned one when it is needed, so the children can change while iterating.
+     * If the last returned child was removed, the removed children are followed
+     * to the next child that is still linked, and if it was added again or the
+     * chain is broken the iteration resumes from its position in the insertion order.
+     */
+    private class ChildIterator implements Iterator<Tree<T>> {
+
+        /**
+         * The last returned child, null before the first child.
+         */
+        private Tree<T> previous;
+
+        /**
+         * Position of the last returned child when it was returned.
+         */
+        private long previousOrder;
+
+        /**
+         * Create a new iterator.
+         * 
+         * @param previous The child before the first returned, null to start at the first child.
+         */
+        ChildIterator(Tree<T> previous) {
+            this.previous = previous;
+            this.previousOrder = previous != null ? previous.order : -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return following() != null;
+        }
+
+        @Override
+        public Tree<T> next() {
+            Tree<T> child = following();
+            if (child == null) {
+                throw new NoSuchElementException();
+            }
+            previous = child;
+            previousOrder = child.order;
+            return child;
+        }
+
+        /**
+         * Get the child after the last returned one.
+         * 
+         * @return The child, null at the end.
+         */
+        private Tree<T> following() {
+            if (previous == null) {
+                return firstChild;
+            }
+            if (previous.order == previousOrder) {
+                Tree<T> child = previous;
+                while (child != null && !isChild(child)) {
+                    // A removed child points to its successor at the time of the removal.
+                    Tree<T> next = child.nextSibling;
+                    child = next != null && next.order == child.successorOrder ? next : null;
+                }
+                if (child == previous) {
+                    return previous.nextSibling;
+                }
+                if (child != null) {
+                    return child;
+                }
+            }
+            return childAfter(previousOrder);
+        }
+
     }
     
 }
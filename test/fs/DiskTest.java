@@ -3,10 +3,23 @@ package fs;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.file.AccessDeniedException;
 import java.nio.file.Files;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import static fs.matchers.ContainsNodeMatcher.*;
 import fs.util.FileUtils;
+import fs.util.IntList;
+import fs.util.StringUtils;
+import fs.util.Tree;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 
@@ -382,4 +395,974 @@ public class DiskTest {
         assertThat(files.size(), is(2));
     }
 
+    @Test
+    public void testPreallocate() throws Exception {
+        String log = "log.txt";
+        String other = "other.txt";
+
+        disk.createFile(log, "");
+        disk.preallocate(log, 30);
+        disk.createFile(other, "xyz");
+        disk.changeFileContent(log, "0123456789abcdefghijABCDE");
+
+        List<String> sectors = disk.getSectorsContent();
+        assertThat(disk.getFileContent(log), is("0123456789abcdefghijABCDE"));
+        assertThat(sectors.get(0), is("0123456789"));
+        assertThat(sectors.get(1), is("abcdefghij"));
+        assertThat(sectors.get(2), is("ABCDE"));
+        assertThat(sectors.get(3), is("xyz"));
+    }
+
+    @Test
+    public void testDelayedAllocation() throws Exception {
+        String log = "log.txt";
+        String other = "other.txt";
+
+        disk.setDelayedAllocation(true);
+        disk.createFile(log, "0123456789");
+        disk.createFile(other, "xyz");
+        disk.changeFileContent(log, "0123456789abcdefghij");
+        assertThat(disk.getFileContent(log), is("0123456789abcdefghij"));
+        assertThat(disk.getFileContent(other), is("xyz"));
+
+        disk.flush();
+        assertThat(disk.getFileContent(log), is("0123456789abcdefghij"));
+        assertThat(disk.getFileContent(other), is("xyz"));
+        assertThat(disk.getSectorsContent().get(1), is("abcdefghij"));
+    }
+
+    @Test
+    public void testDelayedAllocationPromises() throws Exception {
+        String content = StringUtils.repeat("0123456789", 10);
+
+        disk.setDelayedAllocation(true);
+        for (int i = 0; i < 100; i++) {
+            disk.createFile("file" + i + ".txt", content);
+        }
+        try {
+            disk.createFile("extra.txt", "x");
+            fail("The buffered files were promised every sector.");
+        }
+        catch (IOException ex) {
+            assertThat(disk.exists("extra.txt"), is(false));
+        }
+
+        disk.changeFileContent("file0.txt", "x");
+        disk.createFile("extra.txt", StringUtils.repeat("x", 90));
+        disk.delete("file1.txt");
+        disk.createFile("last.txt", content);
+
+        disk.flush();
+        assertThat(disk.getFileContent("file2.txt"), is(content));
+        assertThat(disk.getFileContent("last.txt"), is(content));
+        assertThat(disk.getUsedSectors(), is(1000));
+    }
+
+    @Test
+    public void testInlineFile() throws Exception {
+        String config = "config.txt";
+
+        disk.setInlineThreshold(8);
+        disk.createFile(config, "abc");
+        assertThat(disk.getFileContent(config), is("abc"));
+        assertThat(disk.getSectorsContent().get(0), is(""));
+
+        disk.changeFileContent(config, "0123456789abc");
+        assertThat(disk.getFileContent(config), is("0123456789abc"));
+        assertThat(disk.getSectorsContent().get(0), is("0123456789"));
+    }
+
+    @Test
+    public void testTailPacking() throws Exception {
+        String file1 = "file1.txt";
+        String file2 = "file2.txt";
+        String file3 = "file3.txt";
+
+        disk.setTailPacking(true);
+        disk.createFile(file1, "0123456789abc");
+        disk.createFile(file2, "xyz");
+        disk.createFile(file3, "ABCD");
+        assertThat(disk.getFileContent(file1), is("0123456789abc"));
+        assertThat(disk.getFileContent(file2), is("xyz"));
+        assertThat(disk.getFileContent(file3), is("ABCD"));
+        assertThat(disk.getSectorsContent().get(1), is("abcxyzABCD"));
+
+        disk.delete(file2);
+        disk.changeFileContent(file1, "0123456789");
+        assertThat(disk.getFileContent(file3), is("ABCD"));
+        assertThat(disk.getSectorsContent().get(1), is("ABCD"));
+    }
+
+    @Test
+    public void testFragmentedFile() throws Exception {
+        Disk small = new Disk(DiskTest.diskName, 4, 10);
+
+        small.createFile("file1.txt", "0123456789");
+        small.createFile("file2.txt", "0123456789");
+        small.createFile("file3.txt", "0123456789");
+        small.createFile("file4.txt", "0123456789");
+        small.delete("file1.txt");
+        small.changeFileContent("file3.txt", "abcdefghijABCDEFGHIJ");
+
+        assertThat(small.getFileContent("file3.txt"), is("abcdefghijABCDEFGHIJ"));
+        assertThat(small.getSectorsContent().get(0), is("ABCDEFGHIJ"));
+        assertThat(small.getSectorsContent().get(2), is("abcdefghij"));
+    }
+
+    @Test
+    public void testSparseFile() throws Exception {
+        String image = "image.bin";
+        String zeros = StringUtils.repeat('\0', 30);
+        String content = "header" + zeros + "footer";
+
+        disk.createFile(image, content);
+        assertThat(disk.getFileContent(image), is(content));
+        assertThat(disk.getFileSize(image), is(42L));
+        assertThat(disk.getAllocatedSize(image), is(30L));
+        assertThat(disk.getFileProperties(image).get("allocated_size"), is((Object) 30L));
+
+        disk.changeFileContent(image, "header" + zeros);
+        assertThat(disk.getFileContent(image), is("header" + zeros));
+        assertThat(disk.getAllocatedSize(image), is(10L));
+    }
+
+    @Test
+    public void testSparseMoveOnFullDisk() throws Exception {
+        Disk full = new Disk(DiskTest.diskName, 2, 10);
+        String block = StringUtils.repeat('a', 10);
+        String zeros = StringUtils.repeat('\0', 10);
+
+        full.createFile("a", block + zeros);
+        full.createFile("b", StringUtils.repeat('b', 10));
+
+        // The sector of the new hole is only freed after the write.
+        try {
+            full.changeFileContent("a", zeros + block);
+            fail("Expected insufficient disk space.");
+        }
+        catch (IOException ex) {
+            assertThat(ex.getMessage(), is("Insufficient disk space."));
+        }
+        assertThat(full.getFileContent("a"), is(block + zeros));
+        assertThat(full.getUsedSectors(), is(2));
+
+        full.delete("b");
+        full.changeFileContent("a", zeros + block);
+        assertThat(full.getFileContent("a"), is(zeros + block));
+        full.createFile("c", StringUtils.repeat('c', 10));
+        assertThat(full.getFileContent("c"), is(StringUtils.repeat('c', 10)));
+    }
+
+    @Test
+    public void testBlockPools() throws Exception {
+        Disk pooled = new Disk("test-disk.txt", new int[] { 4, 4 }, new int[] { 5, 20 });
+        String small = "tiny";
+        String big = StringUtils.repeat('x', 45);
+
+        pooled.createFile("small.txt", small);
+        pooled.createFile("big.txt", big);
+        assertThat(pooled.getFileContent("small.txt"), is(small));
+        assertThat(pooled.getFileContent("big.txt"), is(big));
+        assertThat(pooled.getAllocatedSize("small.txt"), is(5L));
+        assertThat(pooled.getAllocatedSize("big.txt"), is(60L));
+
+        List<String> sectors = pooled.getSectorsContent();
+        assertThat(sectors.size(), is(8));
+        assertThat(sectors.get(0), is(small));
+        assertThat(sectors.get(4), is(StringUtils.repeat('x', 20)));
+
+        // Shrinking the file moves it to the pool of small sectors.
+        pooled.changeFileContent("big.txt", "abc");
+        assertThat(pooled.getFileContent("big.txt"), is("abc"));
+        assertThat(pooled.getAllocatedSize("big.txt"), is(5L));
+        assertThat(pooled.getSectorsContent().get(4), is(""));
+    }
+
+    @Test
+    public void testStreams() throws Exception {
+        Disk large = new Disk("test-disk.txt", 20000, 10);
+        String file = "stream.txt";
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; content.length() < Disk.BUFFER_LIMIT + 5000; i++) {
+            content.append("line ").append(i).append('\n');
+        }
+
+        try (OutputStream out = large.openOutputStream(file)) {
+            byte[] bytes = content.toString().getBytes();
+            for (int i = 0; i < bytes.length; i += 1000) {
+                out.write(bytes, i, Math.min(1000, bytes.length - i));
+            }
+        }
+        assertThat(large.getFileSize(file), is((long) content.length()));
+        assertThat(large.getFileContent(file), is(content.toString()));
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (InputStream in = large.openInputStream(file)) {
+            byte[] buffer = new byte[777];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                read.write(buffer, 0, count);
+            }
+        }
+        assertThat(new String(read.toByteArray()), is(content.toString()));
+
+        try (OutputStream out = large.openOutputStream(file)) {
+            out.write("short".getBytes());
+        }
+        assertThat(large.getFileContent(file), is("short"));
+        assertThat(large.getAllocatedSize(file), is(10L));
+    }
+
+    @Test
+    public void testStreamFillsDisk() throws Exception {
+        Disk large = new Disk(DiskTest.diskName, 100, 1000);
+        String file = "stream.txt";
+        byte[] plain = StringUtils.repeat('x', 3 * Disk.BUFFER_LIMIT).getBytes();
+
+        large.createFile(file, "old content");
+        OutputStream out = large.openOutputStream(file);
+        try {
+            out.write(plain);
+            fail("Expected insufficient disk space.");
+        }
+        catch (IOException ex) {
+            assertThat(ex.getMessage(), is("Insufficient disk space."));
+        }
+        // The sectors written before the failure are released and the file is unchanged.
+        assertThat(large.getFileContent(file), is("old content"));
+        assertThat(large.getUsedSectors(), is(1));
+        out.close();
+        assertThat(large.getFileContent(file), is("old content"));
+
+        // A compressed stream keeps the old chunks readable.
+        StringBuilder noise = new StringBuilder();
+        Random random = new Random(3);
+        while (noise.length() < 12 * Disk.BUFFER_LIMIT) {
+            noise.append((char) ('a' + random.nextInt(26)));
+        }
+        String compressible = StringUtils.repeat("old compressed content\n", 400);
+        large.setCompression(true);
+        large.changeFileContent(file, compressible);
+        int used = large.getUsedSectors();
+        out = large.openOutputStream(file);
+        try {
+            out.write(noise.toString().getBytes());
+            fail("Expected insufficient disk space.");
+        }
+        catch (IOException ex) {
+            assertThat(ex.getMessage(), is("Insufficient disk space."));
+        }
+        assertThat(large.getFileContent(file), is(compressible));
+        assertThat(large.getUsedSectors(), is(used));
+    }
+
+    @Test
+    public void testRangedRead() throws Exception {
+        String file = "log.txt";
+        String content = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+        disk.createFile(file, content);
+        assertThat(disk.read(file, 0, 5), is("01234"));
+        assertThat(disk.read(file, 8, 6), is("89abcd"));
+        assertThat(disk.read(file, 30, 100), is("uvwxyz"));
+        assertThat(disk.read(file, 50, 10), is(""));
+
+        disk.setTailPacking(true);
+        disk.changeFileContent(file, content);
+        assertThat(disk.read(file, 28, 6), is("stuvwx"));
+        assertThat(disk.read(file, 33, 3), is("xyz"));
+    }
+
+    @Test
+    public void testAppendWriteTruncate() throws Exception {
+        String file = "log.txt";
+
+        disk.createFile(file, "0123456789abc");
+        disk.append(file, "defghijklm");
+        assertThat(disk.getFileContent(file), is("0123456789abcdefghijklm"));
+        assertThat(disk.getAllocatedSize(file), is(30L));
+
+        disk.write(file, 8, "XYZ");
+        assertThat(disk.getFileContent(file), is("01234567XYZbcdefghijklm"));
+
+        disk.write(file, 25, "end");
+        assertThat(disk.getFileContent(file), is("01234567XYZbcdefghijklm\0\0end"));
+
+        disk.truncate(file, 12);
+        assertThat(disk.getFileContent(file), is("01234567XYZb"));
+        assertThat(disk.getAllocatedSize(file), is(20L));
+
+        disk.truncate(file, 15);
+        assertThat(disk.getFileContent(file), is("01234567XYZb\0\0\0"));
+    }
+
+    @Test
+    public void testAppendPackedTail() throws Exception {
+        String file = "packed.txt";
+
+        disk.setTailPacking(true);
+        disk.createFile("other.txt", "abc");
+        disk.createFile(file, "0123456789xyz");
+        assertThat(disk.getAllocatedSize(file), is(13L));
+
+        disk.truncate(file, 12);
+        assertThat(disk.getFileContent(file), is("0123456789xy"));
+        assertThat(disk.getAllocatedSize(file), is(12L));
+
+        disk.append(file, "!");
+        assertThat(disk.getFileContent(file), is("0123456789xy!"));
+        assertThat(disk.getFileContent("other.txt"), is("abc"));
+    }
+
+    @Test
+    public void testDiffRewrite() throws Exception {
+        String file = "config.txt";
+        String content = "key1=aaaa\nkey2=bbbb\nkey3=cccc\n";
+
+        disk.createFile(file, content);
+        List<String> before = disk.getSectorsContent();
+
+        disk.changeFileContent(file, content.replace("bbbb", "BBBB"));
+        List<String> after = disk.getSectorsContent();
+        assertThat(disk.getFileContent(file), is(content.replace("bbbb", "BBBB")));
+        assertThat(after.get(0), is(before.get(0)));
+        assertThat(after.get(1), is(not(before.get(1))));
+        assertThat(after.get(2), is(before.get(2)));
+
+        disk.changeFileContent(file, content.substring(0, 25));
+        assertThat(disk.getFileContent(file), is(content.substring(0, 25)));
+        assertThat(disk.getAllocatedSize(file), is(30L));
+    }
+
+    @Test
+    public void testFileHandle() throws Exception {
+        disk.createDirectory("logs");
+        disk.createFile("logs/app.log", "start\n");
+
+        FileHandle handle = disk.open("logs/app.log");
+        assertThat(disk.getOpenFile(handle.getDescriptor()), is(handle));
+
+        handle.append("line\n");
+        handle.write(0, "START");
+        assertThat(handle.read(), is("START\nline\n"));
+        assertThat(handle.read(6, 4), is("line"));
+        assertThat(handle.getSize(), is(11L));
+
+        // The handle follows the file when it is moved.
+        disk.moveFile("logs/app.log", "logs/old.log");
+        assertThat(handle.stat().get("absolute_path"), is((Object) "/logs/old.log"));
+
+        handle.close();
+        assertTrue(handle.isClosed());
+        assertThat(disk.getOpenFiles().size(), is(0));
+
+        FileHandle other = disk.open("logs/old.log");
+        disk.delete("logs/old.log");
+        assertTrue(other.isClosed());
+        try {
+            other.read();
+            fail("Expected a closed handle.");
+        }
+        catch (IOException ex) {
+            assertThat(disk.getOpenFiles().size(), is(0));
+        }
+    }
+
+    @Test
+    public void testCopyOnWrite() throws Exception {
+        String content = StringUtils.repeat('a', 25) + StringUtils.repeat('b', 25);
+
+        disk.createFile("original.txt", content);
+        int used = disk.getUsedSectors();
+
+        disk.copyVirtualToVirtual("original.txt", "copy.txt");
+        assertThat(disk.getUsedSectors(), is(used));
+        assertThat(disk.getFileContent("copy.txt"), is(content));
+
+        // Only the changed sector is split.
+        disk.write("copy.txt", 12, "X");
+        assertThat(disk.getUsedSectors(), is(used + 1));
+        assertThat(disk.getFileContent("original.txt"), is(content));
+        assertThat(disk.getFileContent("copy.txt"), is(content.substring(0, 12) + "X" + content.substring(13)));
+
+        disk.changeFileContent("original.txt", "short");
+        assertThat(disk.getFileContent("copy.txt"), is(content.substring(0, 12) + "X" + content.substring(13)));
+
+        disk.delete("copy.txt");
+        assertThat(disk.getUsedSectors(), is(1));
+        assertThat(disk.getFileContent("original.txt"), is("short"));
+    }
+
+    @Test
+    public void testSnapshots() throws Exception {
+        String content = StringUtils.repeat('a', 25) + StringUtils.repeat('b', 25);
+
+        disk.createDirectory("docs");
+        disk.createFile("docs/file.txt", content);
+        int used = disk.getUsedSectors();
+
+        disk.snapshot("first");
+        assertThat(disk.getUsedSectors(), is(used));
+        assertThat(disk.getSnapshots().size(), is(1));
+
+        disk.write("docs/file.txt", 12, "X");
+        disk.createFile("new.txt", "new");
+        assertThat(disk.getFileContent("/.snapshots/first/docs/file.txt"), is(content));
+        assertThat(disk.exists("/.snapshots/first/new.txt"), is(false));
+
+        try {
+            disk.changeFileContent("/.snapshots/first/docs/file.txt", "changed");
+            fail("Expected a read-only snapshot.");
+        }
+        catch (AccessDeniedException ex) {
+            assertThat(disk.getFileContent("/.snapshots/first/docs/file.txt"), is(content));
+        }
+
+        disk.rollback("first");
+        assertThat(disk.getFileContent("docs/file.txt"), is(content));
+        assertThat(disk.exists("new.txt"), is(false));
+
+        FileHandle handle = disk.open("/.snapshots/first/docs/file.txt");
+        assertThat(handle.read(), is(content));
+        disk.deleteSnapshot("first");
+        assertThat(handle.isClosed(), is(true));
+        assertThat(disk.getSnapshots().isEmpty(), is(true));
+        assertThat(disk.getUsedSectors(), is(used));
+        disk.changeFileContent("docs/file.txt", "short");
+        assertThat(disk.getFileContent("docs/file.txt"), is("short"));
+    }
+
+    @Test
+    public void testDeduplication() throws Exception {
+        String block = StringUtils.repeat('a', 10);
+        String content = block + block + StringUtils.repeat('b', 10) + "tail";
+
+        disk.setDeduplication(true);
+        disk.createFile("first.txt", content);
+        // The two equal chunks are stored once.
+        assertThat(disk.getUsedSectors(), is(3));
+
+        disk.createFile("second.txt", content);
+        assertThat(disk.getUsedSectors(), is(3));
+        assertThat(disk.getDeduplicationRatio(), is(8.0 / 3));
+
+        disk.write("second.txt", 0, "X");
+        assertThat(disk.getFileContent("first.txt"), is(content));
+        assertThat(disk.getFileContent("second.txt"), is("X" + content.substring(1)));
+        assertThat(disk.getUsedSectors(), is(4));
+
+        // A closed disk opens its channel again to compare the sectors.
+        disk.close();
+        disk.createFile("third.txt", content);
+        assertThat(disk.getUsedSectors(), is(4));
+        disk.close();
+
+        disk.delete("first.txt");
+        disk.delete("second.txt");
+        disk.delete("third.txt");
+        assertThat(disk.getUsedSectors(), is(0));
+        assertThat(disk.getDeduplicationRatio(), is(1.0));
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < 3 * Disk.COMPRESSION_CHUNK; i++) {
+            builder.append("line ").append(i).append(" of a text file\n");
+        }
+        String content = builder.toString();
+        Disk big = new Disk(DiskTest.diskName, 2000, 100);
+
+        big.setCompression(true);
+        big.createFile("text.txt", content);
+        assertThat(big.getFileContent("text.txt"), is(content));
+        assertThat(big.getUsedSectors() < content.length() / 100 / 2, is(true));
+        assertThat(big.getFiles("/").get(0).getCompressionRatio() > 2, is(true));
+
+        // A range across two chunks.
+        int offset = Disk.COMPRESSION_CHUNK - 10;
+        assertThat(big.read("text.txt", offset, 20), is(content.substring(offset, offset + 20)));
+
+        big.write("text.txt", offset, "XX");
+        content = content.substring(0, offset) + "XX" + content.substring(offset + 2);
+        assertThat(big.getFileContent("text.txt"), is(content));
+
+        big.copyVirtualToVirtual("text.txt", "copy.txt");
+        assertThat(big.read("copy.txt", offset, 2), is("XX"));
+        StringBuilder streamed = new StringBuilder();
+        try (Reader reader = new InputStreamReader(big.openInputStream("copy.txt"))) {
+            int c;
+            while ((c = reader.read()) != -1) {
+                streamed.append((char) c);
+            }
+        }
+        assertThat(streamed.toString(), is(content));
+
+        big.delete("text.txt");
+        big.delete("copy.txt");
+        assertThat(big.getUsedSectors(), is(0));
+    }
+
+    @Test
+    public void testOverlay() throws Exception {
+        String content = StringUtils.repeat('a', 25) + StringUtils.repeat('b', 25);
+
+        disk.createDirectory("golden");
+        disk.createFile("golden/file.txt", content);
+        int used = disk.getUsedSectors();
+
+        // A failed clone leaves the base writable.
+        try {
+            new Disk("missing-directory/test-overlay.txt", disk);
+            fail("Expected a missing directory.");
+        }
+        catch (IOException ex) {
+            assertThat(disk.isFrozen(), is(false));
+        }
+
+        Disk clone = new Disk("test-overlay.txt", disk);
+        try {
+            assertThat(clone.getOverlaidSectors(), is(0));
+            assertThat(clone.getUsedSectors(), is(used));
+            assertThat(clone.getFileContent("golden/file.txt"), is(content));
+
+            clone.write("golden/file.txt", 0, "X");
+            clone.createFile("new.txt", "new");
+            assertThat(clone.getFileContent("golden/file.txt"), is("X" + content.substring(1)));
+            assertThat(clone.getOverlaidSectors(), is(2));
+            assertThat(disk.getFileContent("golden/file.txt"), is(content));
+            assertThat(disk.exists("new.txt"), is(false));
+
+            try {
+                disk.changeFileContent("golden/file.txt", "changed");
+                fail("Expected a read-only base.");
+            }
+            catch (AccessDeniedException ex) {
+                assertThat(disk.isFrozen(), is(true));
+            }
+
+            clone.delete("golden/file.txt");
+            assertThat(disk.getFileContent("golden/file.txt"), is(content));
+        }
+        finally {
+            new java.io.File("test-overlay.txt").delete();
+        }
+    }
+
+    @Test
+    public void testIndexedChildren() throws Exception {
+        disk.createDirectory("many");
+        for (int i = 0; i < 5000; i++) {
+            disk.createFile("many/file" + i + ".txt", "");
+        }
+        assertThat(disk.getFiles("many").size(), is(5000));
+        assertThat(disk.exists("many/file4321.txt"), is(true));
+
+        disk.moveFile("many/file10.txt", "many/renamed.txt");
+        assertThat(disk.exists("many/file10.txt"), is(false));
+        assertThat(disk.exists("many/renamed.txt"), is(true));
+
+        try {
+            disk.moveFile("many/renamed.txt", "many/file11.txt");
+            fail("Expected an existing file.");
+        }
+        catch (IOException ex) {
+            assertThat(disk.exists("many/renamed.txt"), is(true));
+        }
+
+        disk.delete("many/file20.txt");
+        assertThat(disk.exists("many/file20.txt"), is(false));
+        assertThat(disk.getFiles("many").size(), is(4999));
+    }
+
+    @Test
+    public void testPathCache() throws Exception {
+        disk.createDirectory("a");
+        disk.createDirectory("a/b");
+        disk.createDirectory("a/b/c");
+        disk.createFile("a/b/c/file.txt", "content");
+
+        disk.changeCurrentDirectory("a/b/c");
+        assertThat(disk.getCurrentDirectory(), is("/a/b/c"));
+        assertThat(disk.getFileContent("file.txt"), is("content"));
+        assertThat(disk.exists("/a/b/c/file.txt"), is(true));
+
+        disk.moveFile("/a/b", "/a/moved");
+        assertThat(disk.getCurrentDirectory(), is("/a/moved/c"));
+        assertThat(disk.exists("/a/b/c/file.txt"), is(false));
+        assertThat(disk.getFileContent("/a/moved/c/file.txt"), is("content"));
+        assertThat(disk.getFileContent("file.txt"), is("content"));
+
+        disk.changeCurrentDirectory("/");
+        disk.delete("/a/moved/c/file.txt");
+        assertThat(disk.exists("/a/moved/c/file.txt"), is(false));
+        disk.createFile("a/moved/c/file.txt", "new");
+        assertThat(disk.getFileContent("/a/moved/c/file.txt"), is("new"));
+    }
+
+    @Test
+    public void testPathNormalization() throws Exception {
+        disk.createDirectory("a");
+        disk.createDirectory("a/b");
+        disk.createFile("a/b/file.txt", "content");
+
+        assertThat(disk.getFileContent("a/./b//file.txt"), is("content"));
+        assertThat(disk.getFileContent("/a/b/../b/file.txt"), is("content"));
+        assertThat(disk.getFileContent("/../a/b/file.txt"), is("content"));
+        assertThat(disk.getAbsolutePath("a/b/"), is("/a/b"));
+
+        disk.changeCurrentDirectory("a/b");
+        assertThat(disk.getFileContent("../b/file.txt"), is("content"));
+        assertThat(disk.getFileContent("../../a/b/file.txt"), is("content"));
+
+        try {
+            disk.createFile("x//y.txt", "");
+            fail("Expected an invalid path.");
+        }
+        catch (java.net.MalformedURLException ex) {
+            assertThat(disk.exists("x"), is(false));
+        }
+    }
+
+    @Test
+    public void testInodes() throws Exception {
+        disk.createDirectory("a");
+        disk.createFile("a/file.txt", "content");
+        disk.createFile("other.txt", "content");
+
+        long directory = (long) disk.getFileProperties("a").get("inode");
+        long file = (long) disk.getFileProperties("a/file.txt").get("inode");
+        long other = (long) disk.getFileProperties("other.txt").get("inode");
+        assertThat(directory == file || file == other || directory == other, is(false));
+
+        disk.moveFile("a/file.txt", "renamed.txt");
+        assertThat((long) disk.getFileProperties("a/renamed.txt").get("inode"), is(file));
+        disk.moveFile("a/renamed.txt", "/renamed.txt");
+        assertThat((long) disk.getFileProperties("renamed.txt").get("inode"), is(file));
+
+        disk.delete("renamed.txt");
+        disk.createFile("renamed.txt", "content");
+        assertThat((long) disk.getFileProperties("renamed.txt").get("inode") == file, is(false));
+        assertThat((long) disk.getFileProperties("other.txt").get("inode"), is(other));
+    }
+
+    @Test
+    public void testNodeTimesAndLeaves() throws Exception {
+        disk.createDirectory("a");
+        disk.createFile("a/file.txt", "content");
+
+        Node file = disk.getFiles("a").get(0);
+        assertThat(file.getCreationDate().getTime(), is(file.getCreationTime()));
+        file.setLastModificationTime(1000);
+        assertThat(file.getLastModificationDate().getTime(), is(1000L));
+
+        Tree<Node> leaf = new Tree<>(new File("leaf.txt"));
+        assertThat(leaf.isLeaf(), is(true));
+        assertThat(leaf.size(), is(0));
+        assertThat(leaf.children().isEmpty(), is(true));
+        assertThat(leaf.getChild("x"), is(nullValue()));
+
+        disk.delete("a/file.txt");
+        assertThat(disk.getFiles("a").isEmpty(), is(true));
+        disk.createFile("a/file.txt", "content");
+        assertThat(disk.getFileContent("a/file.txt"), is("content"));
+    }
+
+    @Test
+    public void testPagedListing() throws Exception {
+        disk.createDirectory("dir");
+        for (int i = 0; i < 5; i++) {
+            disk.createFile("dir/file" + i + ".txt", "");
+        }
+
+        Iterator<Node> page = disk.listFiles("dir", null);
+        assertThat(page.next().getName(), is("file0.txt"));
+        assertThat(page.next().getName(), is("file1.txt"));
+
+        page = disk.listFiles("dir", "file1.txt");
+        assertThat(page.next().getName(), is("file2.txt"));
+        disk.delete("dir/file3.txt");
+        disk.moveFile("dir/file0.txt", "renamed.txt");
+        assertThat(page.next().getName(), is("file4.txt"));
+        assertThat(page.hasNext(), is(false));
+
+        // A renamed entry keeps its position.
+        page = disk.listFiles("dir", null);
+        assertThat(page.next().getName(), is("renamed.txt"));
+        page = disk.listFiles("dir", "renamed.txt");
+        assertThat(page.next().getName(), is("file1.txt"));
+
+        try {
+            disk.listFiles("dir", "file3.txt");
+            fail("Expected a missing entry.");
+        }
+        catch (FileNotFoundException ex) {
+            assertThat(disk.getFiles("dir").size(), is(4));
+        }
+    }
+
+    @Test
+    public void testSortedListing() throws Exception {
+        disk.createDirectory("dir");
+        disk.createFile("dir/c.txt", "ccc");
+        disk.createFile("dir/a.txt", "a");
+        disk.createFile("dir/b.txt", "bb");
+
+        Iterator<Node> files = disk.listFiles("dir", null, Disk.SORT_NAME, false);
+        assertThat(files.next().getName(), is("a.txt"));
+        assertThat(files.next().getName(), is("b.txt"));
+        assertThat(files.next().getName(), is("c.txt"));
+
+        files = disk.listFiles("dir", null, Disk.SORT_SIZE, true);
+        assertThat(files.next().getName(), is("c.txt"));
+
+        // The indexes follow the changes of the entries.
+        disk.append("dir/a.txt", "aaaa");
+        disk.moveFile("dir/b.txt", "0.txt");
+        disk.delete("dir/c.txt");
+        disk.createFile("dir/d.txt", "");
+
+        files = disk.listFiles("dir", null, Disk.SORT_SIZE, true);
+        assertThat(files.next().getName(), is("a.txt"));
+        assertThat(files.next().getName(), is("0.txt"));
+        assertThat(files.next().getName(), is("d.txt"));
+        assertThat(files.hasNext(), is(false));
+
+        files = disk.listFiles("dir", "0.txt", Disk.SORT_NAME, false);
+        assertThat(files.next().getName(), is("a.txt"));
+        assertThat(files.next().getName(), is("d.txt"));
+
+        for (Node node : disk.getFiles("dir")) {
+            node.setLastModificationTime(node.getName().equals("a.txt") ? 3000 : node.getName().equals("d.txt") ? 2000 : 1000);
+        }
+        files = disk.listFiles("dir", null, Disk.SORT_MTIME, true);
+        assertThat(files.next().getName(), is("a.txt"));
+        assertThat(files.next().getName(), is("d.txt"));
+        assertThat(files.next().getName(), is("0.txt"));
+        disk.getFiles("dir").get(2).setLastModificationTime(0);
+        files = disk.listFiles("dir", null, Disk.SORT_MTIME, false);
+        assertThat(files.next().getName(), is("d.txt"));
+    }
+
+    @Test
+    public void testSubtreeUsage() throws Exception {
+        disk.createDirectory("a");
+        disk.createDirectory("a/b");
+        disk.createFile("a/one.txt", StringUtils.repeat('x', 25));
+        disk.createFile("a/b/two.txt", StringUtils.repeat('y', 10));
+        assertUsage("/", 35, 4);
+        assertUsage("a/b", 10, 1);
+
+        disk.append("a/b/two.txt", StringUtils.repeat('y', 15));
+        disk.truncate("a/one.txt", 5);
+        assertUsage("a", 30, 4);
+        assertUsage("a/b", 25, 3);
+
+        disk.write("a/b/two.txt", 100, "z");
+        disk.preallocate("a/one.txt", 40);
+        try (FileHandle handle = disk.open("a/one.txt")) {
+            handle.write("12345678901");
+        }
+        assertUsage("a", disk.getFileSize("a/one.txt") + disk.getFileSize("a/b/two.txt"), countSectors("a"));
+
+        disk.moveFile("a/b", "/");
+        assertUsage("a", 11, countSectors("a"));
+        assertUsage("/b", 101, countSectors("b"));
+
+        disk.snapshot("snap");
+        disk.delete("b/two.txt");
+        assertUsage("/", 11, countSectors("/"));
+        disk.rollback("snap");
+        assertUsage("/", 112, countSectors("/"));
+
+        disk.delete("a");
+        assertUsage("/", 101, countSectors("/"));
+        assertThat(disk.getTotalSectors("b"), is((long) countSectors("b")));
+
+        disk.setDelayedAllocation(true);
+        disk.createFile("b/three.txt", StringUtils.repeat('w', 30));
+        disk.flush();
+        assertUsage("b", 131, countSectors("b"));
+    }
+
+    /**
+     * Check the totals of a path.
+     *
+     * @param path The path.
+     * @param size The expected size.
+     * @param sectors The expected amount of sectors.
+     * @throws Exception If the path doesn't exists.
+     */
+    private void assertUsage(String path, long size, long sectors) throws Exception {
+        assertThat(disk.getTotalSize(path), is(size));
+        assertThat(disk.getTotalSectors(path), is(sectors));
+    }
+
+    /**
+     * Count the allocated sectors of the files under a path by visiting them.
+     *
+     * @param path The path.
+     * @return The amount of sectors.
+     * @throws Exception If the path doesn't exists.
+     */
+    private int countSectors(String path) throws Exception {
+        if (!disk.isDirectory(path)) {
+            return (int) ((long) disk.getFileProperties(path).get("allocated_size") / 10);
+        }
+        int count = 0;
+        for (Node node : disk.getFiles(path)) {
+            count += countSectors(path + "/" + node.getName());
+        }
+        return count;
+    }
+
+    @Test
+    public void testRecursiveDelete() throws Exception {
+        disk.createDirectory("a");
+        disk.createDirectory("a/b");
+        disk.createDirectory("a/b/c");
+        disk.createFile("a/one.txt", StringUtils.repeat('x', 25));
+        disk.createFile("a/b/two.txt", StringUtils.repeat('y', 10));
+        disk.createFile("a/b/c/three.txt", StringUtils.repeat('z', 35));
+        FileHandle handle = disk.open("a/b/c/three.txt");
+        assertThat(disk.getUsedSectors(), is(8));
+
+        disk.delete("a");
+        assertThat(disk.getUsedSectors(), is(0));
+        assertThat(handle.isClosed(), is(true));
+        assertThat(disk.exists("a"), is(false));
+
+        disk.createFile("a.txt", StringUtils.repeat('w', 10000));
+        assertThat(disk.getFileContent("a.txt").length(), is(10000));
+
+        // Deleting an ancestor of the current directory moves to the parent of the deleted tree.
+        disk.delete("a.txt");
+        disk.createDirectory("x");
+        disk.createDirectory("x/y");
+        disk.createDirectory("x/y/z");
+        disk.changeCurrentDirectory("x/y/z");
+        disk.delete("/x/y");
+        assertThat(disk.getCurrentDirectory(), is("/x"));
+        disk.createFile("file.txt", "content");
+        assertThat(disk.getFileContent("/x/file.txt"), is("content"));
+    }
+
+    @Test
+    public void testListingWhileRemoving() throws Exception {
+        disk.createDirectory("dir");
+        for (int i = 0; i < 5; i++) {
+            disk.createFile("dir/file" + i + ".txt", "");
+        }
+
+        // The returned entry and its successor are removed.
+        Iterator<Node> page = disk.listFiles("dir", null);
+        assertThat(page.next().getName(), is("file0.txt"));
+        assertThat(page.next().getName(), is("file1.txt"));
+        disk.delete("dir/file1.txt");
+        disk.delete("dir/file2.txt");
+        assertThat(page.next().getName(), is("file3.txt"));
+
+        // The returned entry is removed and added again at the end.
+        disk.moveFile("dir/file3.txt", "/");
+        disk.moveFile("/file3.txt", "dir");
+        assertThat(page.next().getName(), is("file4.txt"));
+        assertThat(page.next().getName(), is("file3.txt"));
+        assertThat(page.hasNext(), is(false));
+
+        // The last entry is removed and other one is added.
+        disk.delete("dir/file3.txt");
+        disk.createFile("dir/file5.txt", "");
+        assertThat(page.next().getName(), is("file5.txt"));
+        assertThat(page.hasNext(), is(false));
+    }
+
+    @Test
+    public void testIntListHoles() throws Exception {
+        IntList list = new IntList();
+        list.add(3);
+        list.add(-1);
+        list.add(5);
+        assertThat(list.negativeCount(), is(1));
+
+        list.set(0, -1);
+        list.set(1, 4);
+        assertThat(list.negativeCount(), is(1));
+        assertThat(list.subList(0, 2).negativeCount(), is(1));
+
+        IntList copy = new IntList(list);
+        copy.addAll(list);
+        assertThat(copy.negativeCount(), is(2));
+        copy.removeValue(-1);
+        copy.removeLast();
+        assertThat(copy.negativeCount(), is(1));
+        copy.clear();
+        assertThat(copy.negativeCount(), is(0));
+    }
+
+    @Test
+    public void testTailBestFit() throws Exception {
+        disk.setTailPacking(true);
+        disk.createFile("a.txt", "aaaaaa");
+        disk.createFile("b.txt", "bbbbbbbb");
+        disk.createFile("c.txt", "cc");
+        disk.createFile("d.txt", "dddd");
+        assertThat(disk.getSectorsContent().get(0), is("aaaaaadddd"));
+        assertThat(disk.getSectorsContent().get(1), is("bbbbbbbbcc"));
+        assertThat(disk.getUsedSectors(), is(2));
+
+        disk.delete("c.txt");
+        disk.createFile("e.txt", "e");
+        assertThat(disk.getSectorsContent().get(1), is("bbbbbbbbe"));
+        assertThat(disk.getFileContent("e.txt"), is("e"));
+        assertThat(disk.getUsedSectors(), is(2));
+    }
+
+    @Test
+    public void testCompressedStream() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < 2 * Disk.BUFFER_LIMIT + 123; i++) {
+            builder.append("line ").append(i).append(" of a text file\n");
+        }
+        String content = builder.toString();
+        Disk big = new Disk(DiskTest.diskName, 2000, 100);
+
+        big.setCompression(true);
+        try (OutputStream stream = big.openOutputStream("text.txt")) {
+            stream.write(content.getBytes());
+        }
+        assertThat(big.getFileContent("text.txt"), is(content));
+        assertThat(big.getFiles("/").get(0).getCompressionRatio() > 2, is(true));
+
+        // A write in the last chunk keeps the stored chunks before it.
+        String first = big.getSectorsContent().get(0);
+        big.write("text.txt", content.length() - 5, "END");
+        content = content.substring(0, content.length() - 5) + "END" + content.substring(content.length() - 2);
+        assertThat(big.getFileContent("text.txt"), is(content));
+        assertThat(big.getSectorsContent().get(0), is(first));
+
+        // A chunk that grows moves the chunks after it.
+        StringBuilder noise = new StringBuilder();
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            noise.append((char) ('a' + random.nextInt(26)));
+        }
+        int offset = 3 * Disk.COMPRESSION_CHUNK + 100;
+        big.write("text.txt", offset, noise.toString());
+        content = content.substring(0, offset) + noise + content.substring(offset + noise.length());
+        assertThat(big.getFileContent("text.txt"), is(content));
+        assertThat(big.read("text.txt", 10 * Disk.COMPRESSION_CHUNK, 20), is(content.substring(10 * Disk.COMPRESSION_CHUNK, 10 * Disk.COMPRESSION_CHUNK + 20)));
+
+        // Appending and truncating only compress the last chunk again.
+        big.write("text.txt", content.length(), "appended");
+        content += "appended";
+        assertThat(big.getFileContent("text.txt"), is(content));
+        big.truncate("text.txt", 5 * Disk.COMPRESSION_CHUNK + 7);
+        content = content.substring(0, 5 * Disk.COMPRESSION_CHUNK + 7);
+        assertThat(big.getFileContent("text.txt"), is(content));
+        assertThat(big.getSectorsContent().get(0), is(first));
+
+        big.delete("text.txt");
+        assertThat(big.getUsedSectors(), is(0));
+    }
+
 }